@@ -0,0 +1,32 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.lexer;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.pom.java.LanguageLevel;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Creates Java lexers for the API level code, the lexer itself lives in the implementation.
+ */
+public abstract class JavaLexerFactory {
+  public static JavaLexerFactory getInstance() {
+    return ServiceManager.getService(JavaLexerFactory.class);
+  }
+
+  @NotNull
+  public abstract Lexer createLexer(@NotNull LanguageLevel languageLevel);
+}
@@ -18,19 +18,20 @@ package com.intellij.psi;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.psi.tree.TokenSet;
 import com.intellij.psi.tree.java.IJavaElementType;
+import com.intellij.psi.tree.java.IJavaReparseableLeafElementType;
 import com.intellij.psi.tree.java.IKeywordElementType;
 
 public interface JavaTokenType extends TokenType {
-  IElementType IDENTIFIER = new IJavaElementType("IDENTIFIER");
-  IElementType C_STYLE_COMMENT = new IJavaElementType("C_STYLE_COMMENT");
-  IElementType END_OF_LINE_COMMENT = new IJavaElementType("END_OF_LINE_COMMENT");
+  IElementType IDENTIFIER = new IJavaReparseableLeafElementType("IDENTIFIER");
+  IElementType C_STYLE_COMMENT = new IJavaReparseableLeafElementType("C_STYLE_COMMENT");
+  IElementType END_OF_LINE_COMMENT = new IJavaReparseableLeafElementType("END_OF_LINE_COMMENT");
 
-  IElementType INTEGER_LITERAL = new IJavaElementType("INTEGER_LITERAL");
-  IElementType LONG_LITERAL = new IJavaElementType("LONG_LITERAL");
-  IElementType FLOAT_LITERAL = new IJavaElementType("FLOAT_LITERAL");
-  IElementType DOUBLE_LITERAL = new IJavaElementType("DOUBLE_LITERAL");
-  IElementType CHARACTER_LITERAL = new IJavaElementType("CHARACTER_LITERAL");
-  IElementType STRING_LITERAL = new IJavaElementType("STRING_LITERAL");
+  IElementType INTEGER_LITERAL = new IJavaReparseableLeafElementType("INTEGER_LITERAL");
+  IElementType LONG_LITERAL = new IJavaReparseableLeafElementType("LONG_LITERAL");
+  IElementType FLOAT_LITERAL = new IJavaReparseableLeafElementType("FLOAT_LITERAL");
+  IElementType DOUBLE_LITERAL = new IJavaReparseableLeafElementType("DOUBLE_LITERAL");
+  IElementType CHARACTER_LITERAL = new IJavaReparseableLeafElementType("CHARACTER_LITERAL");
+  IElementType STRING_LITERAL = new IJavaReparseableLeafElementType("STRING_LITERAL");
 
   IElementType TRUE_KEYWORD = new IKeywordElementType("TRUE_KEYWORD");
   IElementType FALSE_KEYWORD = new IKeywordElementType("FALSE_KEYWORD");
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.tree.java;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.LanguageParserDefinitions;
+import com.intellij.lang.java.JavaLanguage;
+import com.intellij.lexer.JavaLexerFactory;
+import com.intellij.lexer.Lexer;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.tree.IReparseableLeafElementType;
+import com.intellij.psi.util.PsiUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Java token which text is never looked at by the parser, so a change inside it doesn't need a reparse.
+ */
+public class IJavaReparseableLeafElementType extends IJavaElementType implements IReparseableLeafElementType {
+  public IJavaReparseableLeafElementType(@NonNls String debugName) {
+    super(debugName);
+  }
+
+  @Override
+  public boolean isReparseable(@NotNull ASTNode leaf, @NotNull CharSequence newText) {
+    return true;
+  }
+
+  @NotNull
+  @Override
+  public Lexer createLexer(@NotNull ASTNode leaf) {
+    PsiElement psi = leaf.getPsi();
+    JavaLexerFactory factory = JavaLexerFactory.getInstance();
+    if (factory == null) { // e.g. an environment which doesn't register the service, the lexer of the project language level will do
+      return LanguageParserDefinitions.INSTANCE.forLanguage(JavaLanguage.INSTANCE).createLexer(psi.getProject());
+    }
+    return factory.createLexer(PsiUtil.getLanguageLevel(psi));
+  }
+}
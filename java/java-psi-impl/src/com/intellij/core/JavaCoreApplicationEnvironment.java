@@ -23,6 +23,8 @@ import com.intellij.lang.LanguageASTFactory;
 import com.intellij.lang.LanguageParserDefinitions;
 import com.intellij.lang.java.JavaLanguage;
 import com.intellij.lang.java.JavaParserDefinition;
+import com.intellij.lexer.JavaLexerFactory;
+import com.intellij.lexer.JavaLexerFactoryImpl;
 import com.intellij.navigation.ItemPresentationProviders;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.extensions.Extensions;
@@ -71,6 +73,7 @@ public class JavaCoreApplicationEnvironment extends CoreApplicationEnvironment {
     myApplication.registerService(EmptySubstitutor.class, new EmptySubstitutorImpl());
     myApplication.registerService(JavaDirectoryService.class, createJavaDirectoryService());
     myApplication.registerService(JavaVersionService.class, new JavaVersionService());
+    myApplication.registerService(JavaLexerFactory.class, new JavaLexerFactoryImpl());
 
     addExplicitExtension(ItemPresentationProviders.INSTANCE, PsiPackage.class, new PackagePresentationProvider());
     addExplicitExtension(ItemPresentationProviders.INSTANCE, PsiClass.class, new ClassPresentationProvider());
@@ -29,6 +29,7 @@ import com.intellij.openapi.project.ex.ProjectManagerEx;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.impl.DebugUtil;
+import com.intellij.psi.impl.DocumentCommitThread;
 import com.intellij.psi.impl.PsiDocumentManagerImpl;
 import com.intellij.psi.impl.TextBlock;
 import com.intellij.psi.impl.source.PsiFileImpl;
@@ -315,6 +316,64 @@ public class PsiDocumentManagerImplTest extends PlatformTestCase {
     assertEquals(2, count.get());
   }
 
+  public void testTwoDocumentsAreCommittedInBackground() {
+    final Document document1 = getPsiDocumentManager().getDocument(getPsiManager().findFile(createFile()));
+    final Document document2 = getPsiDocumentManager().getDocument(getPsiManager().findFile(new LightVirtualFile("bar.java")));
+    assertNotNull(document1);
+    assertNotNull(document2);
+    waitForBackgroundCommits();
+    int committed = DocumentCommitThread.getInstance().getCommittedCount();
+
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        document1.insertString(0, "class A {}");
+        document2.insertString(0, "class B {}");
+      }
+    });
+    waitForBackgroundCommits();
+
+    assertTrue(getPsiDocumentManager().isCommitted(document1));
+    assertTrue(getPsiDocumentManager().isCommitted(document2));
+    assertEquals("class A {}", getPsiDocumentManager().getPsiFile(document1).getText());
+    assertEquals("class B {}", getPsiDocumentManager().getPsiFile(document2).getText());
+    assertEquals(committed + 2, DocumentCommitThread.getInstance().getCommittedCount());
+  }
+
+  public void testDocumentQueuedTwiceIsCommittedOnce() {
+    final Document document = getPsiDocumentManager().getDocument(getPsiManager().findFile(createFile()));
+    assertNotNull(document);
+    waitForBackgroundCommits();
+    int committed = DocumentCommitThread.getInstance().getCommittedCount();
+
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        // every change queues the document again
+        document.insertString(0, "class X {}");
+        document.insertString(0, "/**/");
+      }
+    });
+    waitForBackgroundCommits();
+
+    assertTrue(getPsiDocumentManager().isCommitted(document));
+    assertEquals("/**/class X {}", getPsiDocumentManager().getPsiFile(document).getText());
+    assertEquals(committed + 1, DocumentCommitThread.getInstance().getCommittedCount());
+  }
+
+  private void waitForBackgroundCommits() {
+    final Semaphore semaphore = new Semaphore();
+    semaphore.down();
+    getPsiDocumentManager().performWhenAllCommitted(new Runnable() {
+      @Override
+      public void run() {
+        semaphore.up();
+      }
+    });
+    waitAndPump(semaphore, 30000);
+    UIUtil.dispatchAllInvocationEvents();
+  }
+
   private static void waitAndPump(Semaphore semaphore, int timeout) {
     final long limit = System.currentTimeMillis() + timeout;
     while (System.currentTimeMillis() < limit) {
@@ -3,8 +3,11 @@
  */
 package com.intellij.psi;
 
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.lang.ASTNode;
 import com.intellij.openapi.editor.Document;
 import com.intellij.psi.impl.DebugUtil;
+import com.intellij.psi.impl.source.tree.TreeUtil;
 import com.intellij.testFramework.LightCodeInsightTestCase;
 import org.jetbrains.annotations.NonNls;
 
@@ -1095,4 +1098,59 @@ public class TreeIsCorrectAfterDiffReparseTest extends LightCodeInsightTestCase
       DebugUtil.CHECK = old;
     }
   }
+
+  public void testChangesInsideTokens() throws Exception {
+    String text = "class Foo {\n" +
+                  "  // comment\n" +
+                  "  int field = 42;\n" +
+                  "  void foo() { String s = \"text\"; /* block */ }\n" +
+                  "}";
+    configureFromFileText("Foo.java", text);
+    PsiField field = ((PsiJavaFile)myFile).getClasses()[0].getFields()[0];
+
+    replaceInsideTokenAndCommit(text.indexOf("comment") + 2, 0, "x");
+    replaceInsideTokenAndCommit(myFile.getText().indexOf("field") + 2, 1, "el");
+    replaceInsideTokenAndCommit(myFile.getText().indexOf("42") + 1, 0, "1");
+    replaceInsideTokenAndCommit(myFile.getText().indexOf("text") + 1, 2, "");
+    replaceInsideTokenAndCommit(myFile.getText().indexOf("block") + 1, 0, "b");
+
+    assertTrue(field.isValid());
+    assertEquals("fielld", field.getName());
+    assertEquals("412", field.getInitializer().getText());
+  }
+
+  public void testChangesAffectingNeighbourTokens() throws Exception {
+    configureFromFileText("Foo.java", "class Foo {\n  /* comment */ int fo = 1;\n  String s = \"a\" + \"b\";\n}");
+    replaceAndCommit(myFile.getText().indexOf("fo ") + 2, 0, "r");
+    replaceAndCommit(myFile.getText().indexOf("*/") , 2, "");
+    replaceAndCommit(myFile.getText().indexOf("\"a\"") + 2, 1, "");
+  }
+
+  // the token is relexed and replaced alone: its parent stays the same node, and so does every other leaf
+  private void replaceInsideTokenAndCommit(int offset, int length, String s) {
+    ASTNode fileNode = myFile.getNode();
+    ASTNode leaf = fileNode.findLeafElementAt(offset);
+    ASTNode parent = leaf.getTreeParent();
+    ASTNode prevLeaf = TreeUtil.prevLeaf(leaf);
+    ASTNode nextLeaf = TreeUtil.nextLeaf(leaf);
+
+    replaceAndCommit(offset, length, s);
+
+    ASTNode newLeaf = fileNode.findLeafElementAt(offset);
+    assertNotSame(leaf, newLeaf);
+    assertEquals(leaf.getElementType(), newLeaf.getElementType());
+    assertSame(parent, newLeaf.getTreeParent());
+    assertSame(prevLeaf, TreeUtil.prevLeaf(newLeaf));
+    assertSame(nextLeaf, TreeUtil.nextLeaf(newLeaf));
+  }
+
+  private void replaceAndCommit(int offset, int length, String s) {
+    PsiDocumentManager docManager = PsiDocumentManager.getInstance(ourProject);
+    Document doc = docManager.getDocument(myFile);
+    doc.replaceString(offset, offset + length, s);
+    docManager.commitAllDocuments();
+
+    PsiFile expected = PsiFileFactory.getInstance(ourProject).createFileFromText("Foo.java", JavaFileType.INSTANCE, doc.getText());
+    assertEquals(DebugUtil.psiToString(expected, false), DebugUtil.psiToString(myFile, false));
+  }
 }
@@ -103,12 +103,10 @@ public class StubSerializationHelper {
     final int size = DataInputOutputUtil.readINT(inputStream);
     byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
 
-    int i = 1;
-    while(i <= size) {
-      String s = myStringInterner.get(IOUtil.readUTFFast(buffer, inputStream));
-      storage.myStrings.add(s);
-      storage.myEnumerates.put(s, i);
-      ++i;
+    // reading needs only index -> string mapping, so the reverse one used for serialization is not filled
+    storage.myStrings.ensureCapacity(size);
+    for (int i = 0; i < size; i++) {
+      storage.myStrings.add(myStringInterner.get(IOUtil.readUTFFast(buffer, inputStream)));
     }
     return deserialize(inputStream, null);
   }
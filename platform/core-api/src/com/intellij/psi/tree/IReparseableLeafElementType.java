@@ -0,0 +1,48 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.tree;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.lexer.Lexer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Token type which text doesn't affect the structure of the tree around it, e.g. identifiers, literals or comments in most languages.
+ * When a change is made inside a single leaf of such type, the leaf may be relexed and replaced alone instead of reparsing
+ * the enclosing chameleon or the whole file. The new text is relexed together with the neighbour tokens to ensure
+ * it still forms the only token of the same type.
+ *
+ * @see IReparseableElementType
+ */
+public interface IReparseableLeafElementType {
+  /**
+   * @param leaf    leaf of this type to be changed
+   * @param newText new text of the leaf
+   * @return false if the leaf should not be replaced in place, e.g. the parser treats some texts of this token specially
+   */
+  boolean isReparseable(@NotNull ASTNode leaf, @NotNull CharSequence newText);
+
+  /**
+   * The lexer is started in its initial state at the token preceding the leaf, so leaves of this type may only occur where the lexer
+   * of the file is in that state. The leaf is reparsed in place only if the lexer is in the initial state again before the new token
+   * and after the token following it, otherwise the file is reparsed as usual.
+   *
+   * @param leaf leaf of this type to be changed
+   * @return lexer to relex the leaf with its neighbours, set up as the lexer which produced the tokens of the leaf's file
+   */
+  @NotNull
+  Lexer createLexer(@NotNull ASTNode leaf);
+}
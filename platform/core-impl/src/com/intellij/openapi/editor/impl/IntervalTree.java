@@ -23,7 +23,20 @@ import org.jetbrains.annotations.NotNull;
  */
 public interface IntervalTree<T extends Interval> {
   boolean process(@NotNull Processor<? super T> processor);
+
+  /**
+   * Processes intervals overlapping with [start, end].
+   * <p/>
+   * The processor may be called without the tree lock held: the matching intervals can be collected first and processed after
+   * the traversal, while the tree is modified concurrently. So the processor must not rely on the lock to see a tree which
+   * doesn't change, and an interval passed to it may have been removed or moved by the time it is called.
+   */
   boolean processOverlappingWith(int start, int end, @NotNull Processor<? super T> processor);
+
+  /**
+   * Processes intervals containing the offset. The processor may be called without the tree lock held,
+   * see {@link #processOverlappingWith(int, int, Processor)}.
+   */
   boolean processContaining(int offset, @NotNull Processor<? super T> processor);
 
   boolean removeInterval(@NotNull T interval);
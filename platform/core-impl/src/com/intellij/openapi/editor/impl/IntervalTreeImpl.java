@@ -22,17 +22,22 @@ import com.intellij.openapi.util.Ref;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.Processor;
 import com.intellij.util.SmartList;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.WalkingState;
 import com.intellij.util.concurrency.AtomicFieldUpdater;
+import com.intellij.util.containers.ContainerUtil;
 import gnu.trove.TLongHashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -41,8 +46,150 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * User: cdr
  */
 public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBlackTree<T> implements IntervalTree<T> {
+  private static final boolean OPTIMISTIC_READS = SystemProperties.getBooleanProperty("idea.interval.tree.optimistic.reads", true);
+  private static final int MAX_TREE_DEPTH = 100; // red-black tree is never that deep, deeper path means we are in the middle of rotation
+  // the processor is called only after the traversal, so bigger results are processed under the read lock to let it stop early
+  private static final int MAX_OPTIMISTIC_RESULTS = 32;
+
   private int keySize; // number of all intervals, counting all duplicates, some of them maybe gced
-  protected final ReadWriteLock l = new ReentrantReadWriteLock();
+  private final StampedReadWriteLock myLock = new StampedReadWriteLock();
+  protected final ReadWriteLock l = myLock;
+
+  /**
+   * Counts write lock acquisitions, so that queries can traverse the tree without locking and then check it was not modified
+   * in the meantime. The stamp is odd while the write lock is held.
+   * It is changed by CAS, which has volatile read semantics too, so the tree writes made under the lock can't become visible
+   * before the stamp turns odd.
+   */
+  private static class StampedReadWriteLock extends ReentrantReadWriteLock {
+    private final AtomicInteger myStamp = new AtomicInteger();
+    private final WriteLock myWriteLock = new WriteLock(this) {
+      @Override
+      public void lock() {
+        super.lock();
+        acquired();
+      }
+
+      @Override
+      public void lockInterruptibly() throws InterruptedException {
+        super.lockInterruptibly();
+        acquired();
+      }
+
+      @Override
+      public boolean tryLock() {
+        if (!super.tryLock()) return false;
+        acquired();
+        return true;
+      }
+
+      @Override
+      public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!super.tryLock(timeout, unit)) return false;
+        acquired();
+        return true;
+      }
+
+      @Override
+      public void unlock() {
+        if (getHoldCount() == 1) myStamp.incrementAndGet();
+        super.unlock();
+      }
+
+      private void acquired() {
+        if (getHoldCount() == 1) myStamp.incrementAndGet();
+      }
+    };
+
+    @Override
+    public WriteLock writeLock() {
+      return myWriteLock;
+    }
+  }
+
+  /**
+   * Bounds the traversal of the tree which may be modified concurrently and stops it as soon as the modification is detected.
+   */
+  private static class OptimisticRead {
+    private static final RuntimeException TREE_MODIFIED = new ConcurrentModificationException() {
+      @Override
+      public synchronized Throwable fillInStackTrace() {
+        return this;
+      }
+    };
+
+    private final StampedReadWriteLock myLock;
+    private final int myStamp;
+    private int myNodesToVisit;
+
+    private OptimisticRead(@NotNull StampedReadWriteLock lock, int stamp, int nodesToVisit) {
+      myLock = lock;
+      myStamp = stamp;
+      myNodesToVisit = nodesToVisit;
+    }
+
+    private void checkNode(int depth) {
+      if (--myNodesToVisit < 0 || depth > MAX_TREE_DEPTH || myLock.myStamp.get() != myStamp) throw TREE_MODIFIED;
+    }
+
+    private boolean isValid() {
+      // not a plain read of the stamp: CAS has volatile write semantics, so the preceding plain reads of the traversal
+      // can't be reordered after it, the same way Java 8 StampedLock.validate() fences them
+      return myLock.myStamp.compareAndSet(myStamp, myStamp);
+    }
+  }
+
+  private abstract class Query {
+    abstract boolean process(@NotNull Processor<? super T> processor, int modCountBefore, @Nullable OptimisticRead optimisticRead);
+  }
+
+  /**
+   * Runs the query without locking, and if the tree was modified meanwhile or there are too many results, runs it again under
+   * the read lock. Without locking, the processor is only called after the whole tree is traversed and the traversal is validated.
+   */
+  private boolean process(@NotNull Query query, @NotNull Processor<? super T> processor) {
+    if (OPTIMISTIC_READS) {
+      List<T> found = queryWithoutLock(query);
+      if (found != null) return ContainerUtil.process(found, processor);
+    }
+    try {
+      l.readLock().lock();
+      checkMax(true);
+      return query.process(processor, modCount, null);
+    }
+    finally {
+      l.readLock().unlock();
+    }
+  }
+
+  @Nullable
+  private List<T> queryWithoutLock(@NotNull Query query) {
+    int stamp = myLock.myStamp.get();
+    if ((stamp & 1) != 0) return null; // being modified right now
+
+    OptimisticRead optimisticRead = new OptimisticRead(myLock, stamp, 2 * keySize + MAX_TREE_DEPTH);
+    final List<T> found = new SmartList<T>();
+    try {
+      boolean completed = query.process(new Processor<T>() {
+        @Override
+        public boolean process(T t) {
+          found.add(t);
+          return found.size() < MAX_OPTIMISTIC_RESULTS;
+        }
+      }, modCount, optimisticRead);
+      if (!completed) return null;
+    }
+    catch (RuntimeException e) {
+      return null; // inconsistent state is seen
+    }
+    catch (AssertionError e) {
+      return null;
+    }
+    catch (StackOverflowError e) {
+      return null; // maxEndOf() recursing over a cycle seen in the middle of rotation
+    }
+    return optimisticRead.isValid() ? found : null;
+  }
 
   protected abstract int compareEqualStartIntervals(@NotNull IntervalNode<T> i1, @NotNull IntervalNode<T> i2);
   private final ReferenceQueue<T> myReferenceQueue = new ReferenceQueue<T>();
@@ -433,15 +580,13 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
   }
 
   @Override
-  public boolean processOverlappingWith(int start, int end, @NotNull Processor<? super T> processor) {
-    try {
-      l.readLock().lock();
-      checkMax(true);
-      return processOverlappingWith(getRoot(), start, end, processor, modCount, 0);
-    }
-    finally {
-      l.readLock().unlock();
-    }
+  public boolean processOverlappingWith(final int start, final int end, @NotNull Processor<? super T> processor) {
+    return process(new Query() {
+      @Override
+      boolean process(@NotNull Processor<? super T> processor, int modCountBefore, @Nullable OptimisticRead optimisticRead) {
+        return processOverlappingWith(getRoot(), start, end, processor, modCountBefore, 0, optimisticRead, 0);
+      }
+    }, processor);
   }
 
   private boolean processOverlappingWith(IntervalNode<T> root,
@@ -449,10 +594,13 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
                                          int end,
                                          Processor<? super T> processor,
                                          int modCountBefore,
-                                         int deltaUpToRootExclusive) {
+                                         int deltaUpToRootExclusive,
+                                         @Nullable OptimisticRead optimisticRead,
+                                         int depth) {
     if (root == null) {
       return true;
     }
+    if (optimisticRead != null) optimisticRead.checkNode(depth);
     assert root.isValid();
 
     int delta = deltaUpToRootExclusive + root.delta;
@@ -460,7 +608,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
       return true; // right of the rightmost interval in the subtree
     }
 
-    if (!processOverlappingWith(root.getLeft(), start, end, processor, modCountBefore, delta)) return false;
+    if (!processOverlappingWith(root.getLeft(), start, end, processor, modCountBefore, delta, optimisticRead, depth + 1)) return false;
     int myStartOffset = root.intervalStart() + delta;
     int myEndOffset = root.intervalEnd() + delta;
     boolean overlaps = Math.max(myStartOffset, start) <= Math.min(myEndOffset, end);
@@ -473,28 +621,33 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
       return true; // left of the root, cant be in the right subtree
     }
 
-    return processOverlappingWith(root.getRight(), start, end, processor, modCountBefore, delta);
+    return processOverlappingWith(root.getRight(), start, end, processor, modCountBefore, delta, optimisticRead, depth + 1);
   }
 
-  public boolean processOverlappingWithOutside(int start, int end, @NotNull Processor<? super T> processor) {
-    try {
-      l.readLock().lock();
-      checkMax(true);
-      return processOverlappingWithOutside(getRoot(), start, end, processor, modCount, 0);
-    }
-    finally {
-      l.readLock().unlock();
-    }
+  /**
+   * Processes intervals which are not fully inside [start, end]. As with {@link #processOverlappingWith(int, int, Processor)},
+   * the processor may be called without the tree lock held.
+   */
+  public boolean processOverlappingWithOutside(final int start, final int end, @NotNull Processor<? super T> processor) {
+    return process(new Query() {
+      @Override
+      boolean process(@NotNull Processor<? super T> processor, int modCountBefore, @Nullable OptimisticRead optimisticRead) {
+        return processOverlappingWithOutside(getRoot(), start, end, processor, modCountBefore, 0, optimisticRead, 0);
+      }
+    }, processor);
   }
   private boolean processOverlappingWithOutside(IntervalNode<T> root,
                                                 int start,
                                                 int end,
                                                 @NotNull Processor<? super T> processor,
                                                 int modCountBefore,
-                                                int deltaUpToRootExclusive) {
+                                                int deltaUpToRootExclusive,
+                                                @Nullable OptimisticRead optimisticRead,
+                                                int depth) {
     if (root == null) {
       return true;
     }
+    if (optimisticRead != null) optimisticRead.checkNode(depth);
     assert root.isValid();
 
     int delta = deltaUpToRootExclusive + root.delta;
@@ -502,7 +655,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
     int rootStartOffset = root.intervalStart() + delta;
     int rootEndOffset = root.intervalEnd() + delta;
 
-    if (!processOverlappingWithOutside(root.getLeft(), start, end, processor, modCountBefore, delta)) return false;
+    if (!processOverlappingWithOutside(root.getLeft(), start, end, processor, modCountBefore, delta, optimisticRead, depth + 1)) return false;
 
     boolean toProcess = rootStartOffset < start || rootEndOffset > end;
     if (toProcess) {
@@ -512,36 +665,37 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
 
     if (rootStartOffset >= start && rootMaxEnd <= end) return true; // cant intersect outside
 
-    return processOverlappingWithOutside(root.getRight(), start, end, processor, modCountBefore, delta);
+    return processOverlappingWithOutside(root.getRight(), start, end, processor, modCountBefore, delta, optimisticRead, depth + 1);
   }
 
 
   @Override
-  public boolean processContaining(int offset, @NotNull Processor<? super T> processor) {
-    try {
-      l.readLock().lock();
-      checkMax(true);
-      return processContaining(getRoot(), offset, processor, modCount, 0);
-    }
-    finally {
-      l.readLock().unlock();
-    }
+  public boolean processContaining(final int offset, @NotNull Processor<? super T> processor) {
+    return process(new Query() {
+      @Override
+      boolean process(@NotNull Processor<? super T> processor, int modCountBefore, @Nullable OptimisticRead optimisticRead) {
+        return processContaining(getRoot(), offset, processor, modCountBefore, 0, optimisticRead, 0);
+      }
+    }, processor);
   }
   private boolean processContaining(IntervalNode<T> root,
                                     int offset,
                                     Processor<? super T> processor,
                                     int modCountBefore,
-                                    int deltaUpToRootExclusive) {
+                                    int deltaUpToRootExclusive,
+                                    @Nullable OptimisticRead optimisticRead,
+                                    int depth) {
     if (root == null) {
       return true;
     }
+    if (optimisticRead != null) optimisticRead.checkNode(depth);
     assert root.isValid();
     int delta = deltaUpToRootExclusive + root.delta;
     if (offset > maxEndOf(root, deltaUpToRootExclusive)) {
       return true; // right of the rightmost interval in the subtree
     }
 
-    if (!processContaining(root.getLeft(), offset, processor, modCountBefore, delta)) return false;
+    if (!processContaining(root.getLeft(), offset, processor, modCountBefore, delta, optimisticRead, depth + 1)) return false;
     int myStartOffset = root.intervalStart() + delta;
     int myEndOffset = root.intervalEnd() + delta;
     boolean overlaps = myStartOffset <= offset && offset < myEndOffset;
@@ -555,7 +709,7 @@ public abstract class IntervalTreeImpl<T extends MutableInterval> extends RedBla
       return true; // left of the root, cant be in the right subtree
     }
 
-    return processContaining(root.getRight(), offset, processor, modCountBefore, delta);
+    return processContaining(root.getRight(), offset, processor, modCountBefore, delta, optimisticRead, depth + 1);
   }
 
   @NotNull
@@ -16,6 +16,7 @@
 package com.intellij.openapi.vfs.impl.jar;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.BufferExposingByteArrayInputStream;
 import com.intellij.openapi.util.io.FileAttributes;
 import com.intellij.openapi.util.io.FileUtil;
@@ -25,6 +26,8 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.reference.SoftReference;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.TimedReference;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
 import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -33,10 +36,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.Reference;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -47,6 +50,8 @@ public class JarHandlerBase {
   private static final long DEFAULT_TIMESTAMP = -1L;
 
   private final TimedReference<JarFile> myJarFile = new TimedReference<JarFile>(null);
+  private final TimedReference<JBZipFile> myMappedZip = new TimedReference<JBZipFile>(null);
+  private boolean myCannotMap;
   private Reference<Map<String, EntryInfo>> myRelPathsToEntries = new SoftReference<Map<String, EntryInfo>>(null);
   private final Object lock = new Object();
 
@@ -56,6 +61,10 @@ public class JarHandlerBase {
     protected final boolean isDirectory;
     protected final String shortName;
     protected final EntryInfo parent;
+    // copied from the central directory, so that attribute queries need no zip entry lookups
+    protected long length = DEFAULT_LENGTH;
+    protected long timestamp = DEFAULT_TIMESTAMP;
+    private List<String> myChildNames;
 
     public EntryInfo(@NotNull String shortName, final EntryInfo parent, final boolean directory) {
       this.shortName = shortName;
@@ -72,6 +81,8 @@ public class JarHandlerBase {
     synchronized (lock) {
       myRelPathsToEntries = null;
       myJarFile.set(null);
+      myMappedZip.set(null);
+      myCannotMap = false;
     }
   }
 
@@ -90,7 +101,17 @@ public class JarHandlerBase {
             JarFile.JarEntry entry = entries.nextElement();
             final String name = entry.getName();
             final boolean isDirectory = StringUtil.endsWithChar(name, '/');
-            getOrCreate(isDirectory ? name.substring(0, name.length() - 1) : name, isDirectory, map);
+            EntryInfo info = getOrCreate(isDirectory ? name.substring(0, name.length() - 1) : name, isDirectory, map);
+            info.length = entry.getSize();
+            info.timestamp = entry.getTime();
+          }
+
+          for (EntryInfo info : map.values()) {
+            EntryInfo parent = info.parent;
+            if (parent != null) {
+              if (parent.myChildNames == null) parent.myChildNames = new ArrayList<String>();
+              parent.myChildNames.add(info.shortName);
+            }
           }
 
           myRelPathsToEntries = new SoftReference<Map<String, EntryInfo>>(map);
@@ -228,15 +249,8 @@ public class JarHandlerBase {
   public String[] list(@NotNull final VirtualFile file) {
     synchronized (lock) {
       EntryInfo parentEntry = getEntryInfo(file);
-
-      Set<String> names = new HashSet<String>();
-      for (EntryInfo info : getEntriesMap().values()) {
-        if (info.parent == parentEntry) {
-          names.add(info.shortName);
-        }
-      }
-
-      return ArrayUtil.toStringArray(names);
+      if (parentEntry == null || parentEntry.myChildNames == null) return ArrayUtil.EMPTY_STRING_ARRAY;
+      return ArrayUtil.toStringArray(parentEntry.myChildNames);
     }
   }
 
@@ -270,9 +284,9 @@ public class JarHandlerBase {
   }
 
   public long getLength(@NotNull final VirtualFile file) {
-    final JarFile.JarEntry entry = convertToEntry(file);
     synchronized (lock) {
-      return entry == null ? DEFAULT_LENGTH : entry.getSize();
+      final EntryInfo entryInfo = getEntryInfo(getRelativePath(file));
+      return entryInfo == null ? DEFAULT_LENGTH : entryInfo.length;
     }
   }
 
@@ -283,6 +297,34 @@ public class JarHandlerBase {
 
   @NotNull
   public byte[] contentsToByteArray(@NotNull final VirtualFile file) throws IOException {
+    JBZipEntry mappedEntry = null;
+    synchronized (lock) {
+      final JBZipFile mappedZip = getMappedZip();
+      if (mappedZip != null) {
+        final String path = getRelativePath(file);
+        mappedEntry = mappedZip.getEntry(path);
+        if (mappedEntry == null) mappedEntry = mappedZip.getEntry(path + "/");
+        if (mappedEntry == null || mappedEntry.isDirectory()) return ArrayUtil.EMPTY_BYTE_ARRAY;
+      }
+    }
+    if (mappedEntry != null) {
+      // entries of a mapped archive are read from their own views of the mapping, no need to hold the lock while inflating
+      try {
+        return mappedEntry.getData();
+      }
+      catch (IOException e) {
+        LOG.debug(e); // e.g. zip64 archives aren't supported by JBZipFile, read the entry through ZipFile below
+      }
+      catch (InternalError e) {
+        // the mapped file was truncated under us, reads past its end fault
+        LOG.info(e);
+        synchronized (lock) {
+          myMappedZip.set(null);
+          myCannotMap = true;
+        }
+      }
+    }
+
     final JarFile.JarEntry entry = convertToEntry(file);
     if (entry == null) {
       return ArrayUtil.EMPTY_BYTE_ARRAY;
@@ -303,11 +345,49 @@ public class JarHandlerBase {
     }
   }
 
+  /**
+   * Read-only mapping of the jar, lets entries be read without streams and intermediate buffers.
+   * Should be called under the lock.
+   */
+  @Nullable
+  private JBZipFile getMappedZip() {
+    JBZipFile zip = myMappedZip.get();
+    if (zip == null && !myCannotMap) {
+      final File originalFile = getOriginalFile();
+      final File file = getMirrorFile(originalFile);
+      // only mirrors are mapped: they are replaced by new files (see JarHandler#copyToMirror), so a mapping always reads
+      // a consistent copy, while the original jar may be rewritten in place under its mapping;
+      // not on Windows, where a mapped file cannot be replaced until the mapping is collected
+      if (SystemInfo.isWindows || FileUtil.filesEqual(file, originalFile)) {
+        myCannotMap = true;
+        return null;
+      }
+      try {
+        zip = new JBZipFile(file, "UTF-8", true);
+        myMappedZip.set(zip);
+      }
+      catch (IOException e) {
+        LOG.debug(e);
+        myCannotMap = true;
+      }
+    }
+    return zip;
+  }
+
+  /**
+   * Should be called when the mirror of the jar is replaced, so that entries are no longer read from the mapping of the old one.
+   */
+  protected void mirrorReplaced() {
+    synchronized (lock) {
+      myMappedZip.set(null);
+    }
+  }
+
   public long getTimeStamp(@NotNull final VirtualFile file) {
     if (file.getParent() == null) return getOriginalFile().lastModified(); // Optimization
-    final JarFile.JarEntry entry = convertToEntry(file);
     synchronized (lock) {
-      return entry == null ? DEFAULT_TIMESTAMP : entry.getTime();
+      final EntryInfo entryInfo = getEntryInfo(getRelativePath(file));
+      return entryInfo == null ? DEFAULT_TIMESTAMP : entryInfo.timestamp;
     }
   }
 
@@ -331,13 +411,10 @@ public class JarHandlerBase {
 
   @Nullable
   public FileAttributes getAttributes(@NotNull final VirtualFile file) {
-    final JarFile.JarEntry entry = convertToEntry(file);
     synchronized (lock) {
       final EntryInfo entryInfo = getEntryInfo(getRelativePath(file));
       if (entryInfo == null) return null;
-      final long length = entry != null ? entry.getSize() : DEFAULT_LENGTH;
-      final long timeStamp = entry != null ? entry.getTime() : DEFAULT_TIMESTAMP;
-      return new FileAttributes(entryInfo.isDirectory, false, false, false, length, timeStamp, false);
+      return new FileAttributes(entryInfo.isDirectory, false, false, false, entryInfo.length, entryInfo.timestamp, false);
     }
   }
 }
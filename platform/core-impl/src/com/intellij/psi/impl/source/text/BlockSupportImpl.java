@@ -16,8 +16,10 @@
 
 package com.intellij.psi.impl.source.text;
 
+import com.intellij.lang.ASTFactory;
 import com.intellij.lang.ASTNode;
 import com.intellij.lang.Language;
+import com.intellij.lexer.Lexer;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
@@ -38,8 +40,10 @@ import com.intellij.psi.impl.source.PsiFileImpl;
 import com.intellij.psi.impl.source.tree.*;
 import com.intellij.psi.templateLanguages.ITemplateDataElementType;
 import com.intellij.psi.text.BlockSupport;
+import com.intellij.psi.tree.CustomParsingType;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.psi.tree.IReparseableElementType;
+import com.intellij.psi.tree.IReparseableLeafElementType;
 import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.util.CharTable;
 import com.intellij.util.IncorrectOperationException;
@@ -47,6 +51,7 @@ import com.intellij.util.diff.DiffTree;
 import com.intellij.util.diff.DiffTreeChangeBuilder;
 import com.intellij.util.diff.FlyweightCapableTreeStructure;
 import com.intellij.util.diff.ShallowNodeComparator;
+import com.intellij.util.text.MergingCharSequence;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -104,6 +109,15 @@ public class BlockSupportImpl extends BlockSupport {
 
     final ASTNode leafAtStart = treeFileElement.findLeafElementAt(startOffset);
     final ASTNode leafAtEnd = treeFileElement.findLeafElementAt(endOffset);
+
+    if (leafAtStart != null && leafAtStart.getTextRange().containsRange(startOffset, endOffset) &&
+        fileImpl.getUserData(DO_NOT_REPARSE_INCREMENTALLY) == null) {
+      TextRange leafRange = leafAtStart.getTextRange();
+      CharSequence newLeafText = newFileText.subSequence(leafRange.getStartOffset(), leafRange.getEndOffset() + lengthShift);
+      DiffLog diffLog = reparseLeaf(fileImpl, leafAtStart, newLeafText, charTable);
+      if (diffLog != null) return diffLog;
+    }
+
     ASTNode node = leafAtStart != null && leafAtEnd != null ? TreeUtil.findCommonParent(leafAtStart, leafAtEnd) : treeFileElement;
     Language baseLanguage = file.getViewProvider().getBaseLanguage();
 
@@ -144,6 +158,60 @@ public class BlockSupportImpl extends BlockSupport {
     return makeFullParse(node, newFileText, textLength, fileImpl, indicator);
   }
 
+  /**
+   * Replaces the leaf alone if its type allows that and the lexer supplied by the type, restarted at the previous token, still produces
+   * the unchanged neighbour tokens and exactly one token of the same type from the new text, and is in its initial state both before
+   * the new token and after the next one.
+   */
+  @Nullable
+  private static DiffLog reparseLeaf(@NotNull PsiFileImpl file,
+                                     @NotNull ASTNode leaf,
+                                     @NotNull CharSequence newLeafText,
+                                     @NotNull CharTable charTable) {
+    IElementType type = leaf.getElementType();
+    if (!(type instanceof IReparseableLeafElementType) || type instanceof CustomParsingType || newLeafText.length() == 0) return null;
+    Language language = type.getLanguage();
+    if (!file.getViewProvider().getBaseLanguage().isKindOf(language)) return null;
+    IReparseableLeafElementType reparseableType = (IReparseableLeafElementType)type;
+    if (!reparseableType.isReparseable(leaf, newLeafText)) return null;
+
+    ASTNode prevLeaf = TreeUtil.prevLeaf(leaf);
+    ASTNode nextLeaf = TreeUtil.nextLeaf(leaf);
+    if (!isLexedWith(prevLeaf, language) || !isLexedWith(nextLeaf, language)) return null;
+
+    CharSequence prevText = prevLeaf == null ? "" : prevLeaf.getChars();
+    CharSequence nextText = nextLeaf == null ? "" : nextLeaf.getChars();
+    CharSequence text = new MergingCharSequence(new MergingCharSequence(prevText, newLeafText), nextText);
+    Lexer lexer = reparseableType.createLexer(leaf);
+    lexer.start(text);
+    int initialState = lexer.getState();
+    if (prevLeaf != null && !advanceOverToken(lexer, prevLeaf.getElementType(), prevText.length())) return null;
+    if (lexer.getState() != initialState) return null; // the leaf may depend on what precedes the previous token
+    if (!advanceOverToken(lexer, type, prevText.length() + newLeafText.length())) return null;
+    if (nextLeaf != null && !advanceOverToken(lexer, nextLeaf.getElementType(), text.length())) return null;
+    if (lexer.getTokenType() != null || lexer.getState() != initialState) return null; // tokens after the next one may be lexed differently
+
+    LeafElement newLeaf = ASTFactory.leaf(type, charTable.intern(newLeafText));
+    DummyHolder holder = DummyHolderFactory.createHolder(file.getManager(), null, leaf.getPsi(), charTable);
+    holder.getTreeElement().rawAddChildren(newLeaf);
+
+    DiffLog diffLog = new DiffLog();
+    diffLog.nodeReplaced(leaf, newLeaf);
+    return diffLog;
+  }
+
+  private static boolean isLexedWith(@Nullable ASTNode leaf, @NotNull Language language) {
+    if (leaf == null) return true;
+    Language leafLanguage = leaf.getElementType().getLanguage();
+    return leafLanguage == language || leafLanguage == Language.ANY;
+  }
+
+  private static boolean advanceOverToken(@NotNull Lexer lexer, @NotNull IElementType type, int tokenEnd) {
+    if (lexer.getTokenType() != type || lexer.getTokenEnd() != tokenEnd) return false;
+    lexer.advance();
+    return true;
+  }
+
   private static void assertFileLength(PsiFile file, CharSequence newFileText, ASTNode node, IElementType elementType, int start, int end) {
     if (end > newFileText.length() && ApplicationManager.getApplication().isInternal()) {
       String newTextBefore = newFileText.subSequence(0, start).toString();
@@ -74,4 +74,13 @@ public abstract class FileBasedIndexExtension<K, V> {
   public boolean isKeyHighlySelective() {
     return false;
   }
+
+  /**
+   * @return true if the index should persist data of every file, so that reindexing of a changed file updates only the keys
+   * whose values have changed. Makes sense for indices with many keys per file and small values.
+   * The version should be changed when the returned value changes.
+   */
+  public boolean keepsForwardIndex() {
+    return false;
+  }
 }
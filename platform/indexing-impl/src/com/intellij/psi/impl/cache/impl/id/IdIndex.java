@@ -89,7 +89,7 @@ public class IdIndex extends FileBasedIndexExtension<IdIndexEntry, Integer> {
 
   @Override
   public int getVersion() {
-    return 9; // TODO: version should enumerate all word scanner versions and build version upon that set
+    return 10; // TODO: version should enumerate all word scanner versions and build version upon that set
   }
 
   @Override
@@ -97,6 +97,11 @@ public class IdIndex extends FileBasedIndexExtension<IdIndexEntry, Integer> {
     return true;
   }
 
+  @Override
+  public boolean keepsForwardIndex() {
+    return true;
+  }
+
   @NotNull
   @Override
   public ID<IdIndexEntry,Integer> getName() {
@@ -19,6 +19,7 @@ package com.intellij.find.impl;
 import com.intellij.BundleBase;
 import com.intellij.find.*;
 import com.intellij.find.ngrams.TrigramIndex;
+import com.intellij.find.ngrams.TrigramQuery;
 import com.intellij.navigation.ItemPresentation;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.LangDataKeys;
@@ -46,7 +47,6 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
-import com.intellij.openapi.util.text.TrigramBuilder;
 import com.intellij.openapi.vfs.*;
 import com.intellij.openapi.vfs.ex.VirtualFileManagerEx;
 import com.intellij.psi.*;
@@ -58,15 +58,11 @@ import com.intellij.usages.UsageLimitUtil;
 import com.intellij.usages.UsageTarget;
 import com.intellij.usages.UsageViewPresentation;
 import com.intellij.usages.impl.UsageViewManagerImpl;
-import com.intellij.util.CommonProcessors;
 import com.intellij.util.Function;
 import com.intellij.util.PatternUtil;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.ContainerUtil;
-import com.intellij.util.indexing.FileBasedIndex;
 import gnu.trove.THashSet;
-import gnu.trove.TIntHashSet;
-import gnu.trove.TIntIterator;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -437,32 +433,36 @@ public class FindInProjectUtil {
       scope = ProjectScope.getContentScope(project);
     }
 
-    Set<Integer> keys = new THashSet<Integer>(30);
     final Set<PsiFile> resultFiles = new THashSet<PsiFile>();
     boolean fast = false;
+    boolean trigramsUsed = false;
+    Set<PsiFile> notIndexedFiles = Collections.emptySet();
 
     String stringToFind = findModel.getStringToFind();
     if (TrigramIndex.ENABLED) {
-      TIntHashSet trigrams = TrigramBuilder.buildTrigram(stringToFind);
-      TIntIterator it = trigrams.iterator();
-      while (it.hasNext()) {
-        keys.add(it.next());
-      }
-
-      if (!keys.isEmpty()) {
-        fast = true;
-        List<VirtualFile> hits = new ArrayList<VirtualFile>();
-        FileBasedIndex.getInstance().getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(hits), scope);
-
+      TrigramQuery query = findModel.isRegularExpressions() ? TrigramQuery.forRegExp(stringToFind) : TrigramQuery.forText(stringToFind);
+      Set<VirtualFile> hits = query.findFiles(scope);
+      if (hits != null) {
+        fast = trigramsUsed = true;
         for (VirtualFile hit : hits) {
-          resultFiles.add(pm.findFile(hit));
+          ContainerUtil.addIfNotNull(resultFiles, pm.findFile(hit));
         }
+        notIndexedFiles = getFilesTooLargeForIndexing(scope, fileMaskRegExp, fileIndex, pm);
 
         filterMaskedFiles(resultFiles, fileMaskRegExp);
-        if (resultFiles.isEmpty()) return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
+        if (resultFiles.isEmpty()) {
+          resultFiles.addAll(notIndexedFiles);
+          return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
+        }
       }
     }
 
+    // words of a regular expression are not necessarily present in the text
+    if (findModel.isRegularExpressions()) {
+      resultFiles.addAll(notIndexedFiles);
+      return new Pair<Boolean, Collection<PsiFile>>(fast, resultFiles);
+    }
+
 
     // $ is used to separate words when indexing plain-text files but not when indexing
     // Java identifiers, so we can't consistently break a string containing $ characters into words
@@ -482,7 +482,7 @@ public class FindInProjectUtil {
 
       final List<PsiFile> psiFiles = Arrays.asList(files);
 
-      if (i == 0 && keys.isEmpty()) {
+      if (i == 0 && !trigramsUsed) {
         resultFiles.addAll(psiFiles);
       }
       else {
@@ -516,9 +516,32 @@ public class FindInProjectUtil {
       filterMaskedFiles(resultFiles, fileMaskRegExp);
     }
 
+    resultFiles.addAll(notIndexedFiles);
     return new Pair<Boolean, Collection<PsiFile>>(fast, resultFiles);
   }
 
+  // such files are missing from trigram and word indices, so they are scanned whatever the indices say
+  @NotNull
+  private static Set<PsiFile> getFilesTooLargeForIndexing(@NotNull final GlobalSearchScope scope,
+                                                          @Nullable final Pattern fileMaskRegExp,
+                                                          @NotNull FileIndex fileIndex,
+                                                          @NotNull final PsiManager psiManager) {
+    final Set<PsiFile> result = new THashSet<PsiFile>();
+    fileIndex.iterateContent(new ContentIterator() {
+      @Override
+      public boolean processFile(VirtualFile file) {
+        if (!file.isDirectory() &&
+            SingleRootFileViewProvider.isTooLargeForIntelligence(file) &&
+            scope.contains(file) &&
+            (fileMaskRegExp == null || fileMaskRegExp.matcher(file.getName()).matches())) {
+          ContainerUtil.addIfNotNull(result, psiManager.findFile(file));
+        }
+        return true;
+      }
+    });
+    return result;
+  }
+
   private static void filterMaskedFiles(@NotNull final Set<PsiFile> resultFiles, @Nullable final Pattern fileMaskRegExp) {
     if (fileMaskRegExp != null) {
       for (Iterator<PsiFile> iterator = resultFiles.iterator(); iterator.hasNext();) {
@@ -531,7 +554,7 @@ public class FindInProjectUtil {
   }
 
   private static boolean canOptimizeForFastWordSearch(@NotNull final FindModel findModel) {
-    return !findModel.isRegularExpressions()
+    return (!findModel.isRegularExpressions() || TrigramIndex.ENABLED)
            && (findModel.getCustomScope() == null || findModel.getCustomScope() instanceof GlobalSearchScope);
   }
 
@@ -21,18 +21,18 @@ package com.intellij.find.ngrams;
 
 import com.intellij.openapi.util.text.TrigramBuilder;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.indexing.*;
 import com.intellij.util.io.EnumeratorIntegerDescriptor;
 import com.intellij.util.io.KeyDescriptor;
 import gnu.trove.THashMap;
-import gnu.trove.TIntHashSet;
 import gnu.trove.TIntProcedure;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Map;
 
 public class TrigramIndex extends ScalarIndexExtension<Integer> {
-  public static final boolean ENABLED = "true".equals(System.getProperty("idea.internal.trigramindex.enabled"));
+  public static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.internal.trigramindex.enabled", true);
 
   public static final ID<Integer,Void> INDEX_ID = ID.create("Trigram.Index");
 
@@ -63,8 +63,7 @@ public class TrigramIndex extends ScalarIndexExtension<Integer> {
       @NotNull
       public Map<Integer, Void> map(FileContent inputData) {
         final Map<Integer, Void> result = new THashMap<Integer, Void>();
-        TIntHashSet built = TrigramBuilder.buildTrigram(inputData.getContentAsText());
-        built.forEach(new TIntProcedure() {
+        TrigramBuilder.processTrigrams(inputData.getContentAsText(), new TIntProcedure() {
           @Override
           public boolean execute(int value) {
             result.put(value, null);
@@ -96,8 +95,14 @@ public class TrigramIndex extends ScalarIndexExtension<Integer> {
     return true;
   }
 
+  @Override
+  public boolean keepsForwardIndex() {
+    // most trigrams of a file survive an edit, so the diff is much smaller than the data
+    return true;
+  }
+
   @Override
   public int getVersion() {
-    return ENABLED ? 2 : 1;
+    return ENABLED ? 3 : 1;
   }
 }
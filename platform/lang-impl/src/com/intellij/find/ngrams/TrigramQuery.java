@@ -0,0 +1,381 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.indexing.FileBasedIndex;
+import gnu.trove.THashSet;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Condition on trigrams a text should contain to match a search string or a regular expression: a conjunction of trigrams
+ * and of nested alternatives. The condition is necessary but not sufficient, so files selected by {@link TrigramIndex}
+ * still have to be searched, but all other files can be skipped.
+ */
+public class TrigramQuery {
+  private static final TrigramQuery ALL = new TrigramQuery(new TIntHashSet(), Collections.<TrigramQuery>emptyList(), true);
+
+  private final TIntHashSet myTrigrams;
+  private final List<TrigramQuery> myChildren;
+  private final boolean myConjunction;
+
+  private TrigramQuery(@NotNull TIntHashSet trigrams, @NotNull List<TrigramQuery> children, boolean conjunction) {
+    myTrigrams = trigrams;
+    myChildren = children;
+    myConjunction = conjunction;
+  }
+
+  /**
+   * @return true if every text matches the query, i.e. the index cannot narrow the search
+   */
+  public boolean isAll() {
+    return this == ALL;
+  }
+
+  @NotNull
+  public static TrigramQuery forText(@NotNull CharSequence text) {
+    TIntHashSet trigrams = TrigramBuilder.buildTrigram(text);
+    return trigrams.isEmpty() ? ALL : new TrigramQuery(trigrams, Collections.<TrigramQuery>emptyList(), true);
+  }
+
+  /**
+   * Extracts literal parts of the regular expression, constructs which are not recognized are treated as matching anything.
+   */
+  @NotNull
+  public static TrigramQuery forRegExp(@NotNull String regExp) {
+    RegExpParser parser = new RegExpParser(regExp);
+    TrigramQuery query = parser.parseAlternation();
+    return parser.isComplete() ? query : ALL;
+  }
+
+  @NotNull
+  private static TrigramQuery and(@NotNull TIntHashSet trigrams, @NotNull List<TrigramQuery> children) {
+    List<TrigramQuery> filtered = new ArrayList<TrigramQuery>(children.size());
+    for (TrigramQuery child : children) {
+      if (!child.isAll()) filtered.add(child);
+    }
+    if (trigrams.isEmpty()) {
+      if (filtered.isEmpty()) return ALL;
+      if (filtered.size() == 1) return filtered.get(0);
+    }
+    return new TrigramQuery(trigrams, filtered, true);
+  }
+
+  @NotNull
+  private static TrigramQuery or(@NotNull List<TrigramQuery> alternatives) {
+    for (TrigramQuery alternative : alternatives) {
+      if (alternative.isAll()) return ALL;
+    }
+    return alternatives.size() == 1 ? alternatives.get(0) : new TrigramQuery(new TIntHashSet(), alternatives, false);
+  }
+
+  /**
+   * @return files from the scope which may match the query or null if any file may match it
+   */
+  @Nullable
+  public Set<VirtualFile> findFiles(@NotNull GlobalSearchScope scope) {
+    if (isAll()) return null;
+
+    if (!myConjunction) {
+      Set<VirtualFile> result = new THashSet<VirtualFile>();
+      for (TrigramQuery alternative : myChildren) {
+        Set<VirtualFile> files = alternative.findFiles(scope);
+        if (files == null) return null;
+        result.addAll(files);
+      }
+      return result;
+    }
+
+    Set<VirtualFile> result = null;
+    if (!myTrigrams.isEmpty()) {
+      final Set<Integer> keys = new THashSet<Integer>(myTrigrams.size());
+      myTrigrams.forEach(new TIntProcedure() {
+        @Override
+        public boolean execute(int value) {
+          keys.add(value);
+          return true;
+        }
+      });
+      result = new THashSet<VirtualFile>();
+      FileBasedIndex.getInstance().getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(result),
+                                                   scope);
+    }
+    for (TrigramQuery child : myChildren) {
+      if (result != null && result.isEmpty()) break;
+      Set<VirtualFile> files = child.findFiles(scope);
+      if (files == null) continue;
+      if (result == null) {
+        result = files;
+      }
+      else {
+        result.retainAll(files);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true if a text with given trigrams may match the query
+   */
+  boolean matches(@NotNull TIntHashSet textTrigrams) {
+    if (!myConjunction) {
+      for (TrigramQuery alternative : myChildren) {
+        if (alternative.matches(textTrigrams)) return true;
+      }
+      return false;
+    }
+    for (int trigram : myTrigrams.toArray()) {
+      if (!textTrigrams.contains(trigram)) return false;
+    }
+    for (TrigramQuery child : myChildren) {
+      if (!child.matches(textTrigrams)) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    if (isAll()) return "*";
+    StringBuilder builder = new StringBuilder("(");
+    int[] trigrams = myTrigrams.toArray();
+    Arrays.sort(trigrams);
+    for (int trigram : trigrams) {
+      if (builder.length() > 1) builder.append(" & ");
+      builder.append((char)(trigram >> 16 & 0xFF)).append((char)(trigram >> 8 & 0xFF)).append((char)(trigram & 0xFF));
+    }
+    for (TrigramQuery child : myChildren) {
+      if (builder.length() > 1) builder.append(myConjunction ? " & " : " | ");
+      builder.append(child);
+    }
+    return builder.append(')').toString();
+  }
+
+  /**
+   * Recursive descent over java.util.regex syntax which keeps only what is needed to find literal runs: a literal run is broken by
+   * anything which is not a plain character, and optional parts are dropped. Constructs which might change the meaning of
+   * the following characters (inline flags, quotation, back references, etc.) make the whole expression unrestricted.
+   */
+  private static class RegExpParser {
+    private final String myRegExp;
+    private int myOffset;
+    private boolean myFailed;
+
+    private RegExpParser(@NotNull String regExp) {
+      myRegExp = regExp;
+    }
+
+    private boolean isComplete() {
+      return !myFailed && myOffset == myRegExp.length();
+    }
+
+    @NotNull
+    private TrigramQuery parseAlternation() {
+      List<TrigramQuery> alternatives = new ArrayList<TrigramQuery>(1);
+      alternatives.add(parseConcatenation());
+      while (!myFailed && myOffset < myRegExp.length() && myRegExp.charAt(myOffset) == '|') {
+        myOffset++;
+        alternatives.add(parseConcatenation());
+      }
+      return or(alternatives);
+    }
+
+    @NotNull
+    private TrigramQuery parseConcatenation() {
+      final TIntHashSet trigrams = new TIntHashSet();
+      List<TrigramQuery> children = new ArrayList<TrigramQuery>();
+      StringBuilder run = new StringBuilder();
+
+      while (!myFailed && myOffset < myRegExp.length()) {
+        char c = myRegExp.charAt(myOffset);
+        if (c == '|' || c == ')') break;
+
+        int literal = -1;
+        TrigramQuery group = null;
+        if (c == '(') {
+          group = parseGroup();
+        }
+        else if (c == '[') {
+          skipCharacterClass();
+        }
+        else if (c == '\\') {
+          literal = parseEscape();
+        }
+        else if (c == '.' || c == '^' || c == '$') {
+          myOffset++;
+        }
+        else if (c == '?' || c == '*' || c == '+' || c == '{') {
+          myFailed = true; // dangling quantifier
+        }
+        else {
+          literal = c;
+          myOffset++;
+        }
+        if (myFailed) break;
+
+        int quantifier = parseQuantifier();
+        if (literal >= 0) {
+          if (quantifier == ONCE) {
+            run.append((char)literal);
+            continue;
+          }
+          if (quantifier == AT_LEAST_ONCE) {
+            run.append((char)literal);
+            flush(run, trigrams);
+            run.append((char)literal);
+            continue;
+          }
+        }
+        flush(run, trigrams);
+        if (group != null && quantifier != OPTIONAL) {
+          children.add(group);
+        }
+      }
+      flush(run, trigrams);
+      return and(trigrams, children);
+    }
+
+    private static void flush(@NotNull StringBuilder run, @NotNull final TIntHashSet trigrams) {
+      TrigramBuilder.processTrigrams(run, new TIntProcedure() {
+        @Override
+        public boolean execute(int value) {
+          trigrams.add(value);
+          return true;
+        }
+      });
+      run.setLength(0);
+    }
+
+    @NotNull
+    private TrigramQuery parseGroup() {
+      myOffset++;
+      if (myRegExp.startsWith("?:", myOffset)) {
+        myOffset += 2;
+      }
+      else if (myOffset < myRegExp.length() && myRegExp.charAt(myOffset) == '?') {
+        // inline flags, lookaround, named and atomic groups
+        myFailed = true;
+        return ALL;
+      }
+      TrigramQuery query = parseAlternation();
+      if (myOffset >= myRegExp.length() || myRegExp.charAt(myOffset) != ')') {
+        myFailed = true;
+        return ALL;
+      }
+      myOffset++;
+      return query;
+    }
+
+    private void skipCharacterClass() {
+      int depth = 0;
+      do {
+        char c = myRegExp.charAt(myOffset++);
+        if (c == '[') {
+          depth++;
+          if (myOffset < myRegExp.length() && myRegExp.charAt(myOffset) == '^') myOffset++;
+          if (myOffset < myRegExp.length() && myRegExp.charAt(myOffset) == ']') myOffset++; // leading ']' is a literal
+        }
+        else if (c == ']') {
+          depth--;
+        }
+        else if (c == '\\') {
+          if (myOffset >= myRegExp.length() || myRegExp.charAt(myOffset) == 'Q') break;
+          myOffset++;
+        }
+      }
+      while (depth > 0 && myOffset < myRegExp.length());
+      if (depth > 0) myFailed = true;
+    }
+
+    /**
+     * @return the escaped character or -1 if the escape denotes a character class or a boundary
+     */
+    private int parseEscape() {
+      myOffset++;
+      if (myOffset >= myRegExp.length()) {
+        myFailed = true;
+        return -1;
+      }
+      char c = myRegExp.charAt(myOffset++);
+      switch (c) {
+        case 't': return '\t';
+        case 'n': return '\n';
+        case 'r': return '\r';
+        case 'f': return '\f';
+        case 'e': return '\u001B';
+        case 'a': return '\u0007';
+        case 'd': case 'D': case 's': case 'S': case 'w': case 'W':
+        case 'b': case 'B': case 'A': case 'G': case 'z': case 'Z':
+          return -1;
+      }
+      if (Character.isLetterOrDigit(c)) {
+        // back references, \Q...\E quotation, code points, unicode classes
+        myFailed = true;
+        return -1;
+      }
+      return c;
+    }
+
+    private static final int ONCE = 0;
+    private static final int OPTIONAL = 1;
+    private static final int AT_LEAST_ONCE = 2;
+
+    private int parseQuantifier() {
+      if (myOffset >= myRegExp.length()) return ONCE;
+      int quantifier;
+      char c = myRegExp.charAt(myOffset);
+      if (c == '?' || c == '*') {
+        quantifier = OPTIONAL;
+        myOffset++;
+      }
+      else if (c == '+') {
+        quantifier = AT_LEAST_ONCE;
+        myOffset++;
+      }
+      else if (c == '{') {
+        int end = myRegExp.indexOf('}', myOffset);
+        if (end < 0) {
+          myFailed = true;
+          return ONCE;
+        }
+        String bounds = myRegExp.substring(myOffset + 1, end);
+        int comma = bounds.indexOf(',');
+        String min = comma < 0 ? bounds : bounds.substring(0, comma);
+        try {
+          quantifier = Integer.parseInt(min.trim()) > 0 ? AT_LEAST_ONCE : OPTIONAL;
+        }
+        catch (NumberFormatException e) {
+          myFailed = true;
+          return ONCE;
+        }
+        myOffset = end + 1;
+      }
+      else {
+        return ONCE;
+      }
+      // reluctant and possessive forms
+      if (myOffset < myRegExp.length() && (myRegExp.charAt(myOffset) == '?' || myRegExp.charAt(myOffset) == '+')) myOffset++;
+      return quantifier;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.psi.impl.DocumentCommitThread;
+
+public class DumpDocumentCommitStatisticsAction extends DumbAwareAction {
+  private static final Logger LOG = Logger.getInstance("#" + DumpDocumentCommitStatisticsAction.class.getName());
+
+  public DumpDocumentCommitStatisticsAction() {
+    super("Dump Document Commit Statistics");
+  }
+
+  @Override
+  public void actionPerformed(AnActionEvent e) {
+    DocumentCommitThread commitThread = DocumentCommitThread.getInstance();
+    LOG.info("Documents committed in background: " + commitThread.getCommittedCount() +
+             ", queue size: " + commitThread.getQueueSize() +
+             ", average latency: " + commitThread.getAverageCommitLatency() + "ms" +
+             ", max latency: " + commitThread.getMaxCommitLatency() + "ms");
+  }
+}
@@ -23,6 +23,8 @@ import com.intellij.openapi.application.ex.ApplicationManagerEx;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
@@ -53,7 +55,7 @@ import com.intellij.psi.text.BlockSupport;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.Processor;
 import com.intellij.util.SmartList;
-import com.intellij.util.containers.Queue;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.ui.UIUtil;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -63,24 +65,36 @@ import org.jetbrains.annotations.TestOnly;
 import javax.swing.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DocumentCommitThread implements Runnable, Disposable {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.DocumentCommitThread");
 
-  private final Queue<CommitTask> documentsToCommit = new Queue<CommitTask>(10);
+  private static final int COMMIT_THREADS =
+    Math.max(1, SystemProperties.getIntProperty("idea.document.commit.threads", Math.min(2, Runtime.getRuntime().availableProcessors())));
+
+  private final List<CommitTask> documentsToCommit = new ArrayList<CommitTask>(10); // documents of focused editors go first
   private final List<CommitTask> documentsToApplyInEDT = new ArrayList<CommitTask>(10);  // guarded by documentsToCommit
   private volatile boolean isDisposed;
-  private CommitTask currentTask; // guarded by documentsToCommit
-  private volatile boolean threadFinished;
+  private final List<CommitTask> currentTasks = new ArrayList<CommitTask>(COMMIT_THREADS); // guarded by documentsToCommit
+  private final AtomicInteger myRunningThreads = new AtomicInteger();
   private volatile boolean myEnabled = true; // true if we can do commits. set to false temporarily during the write action.
 
+  // background commits, guarded by documentsToCommit
+  private int myCommittedCount;
+  private long myTotalCommitLatency;
+  private long myMaxCommitLatency;
+
   public static DocumentCommitThread getInstance() {
     return ServiceManager.getService(DocumentCommitThread.class);
   }
 
   public DocumentCommitThread() {
-    log("Starting thread",null, false);
-    new Thread(this, "Document commit thread").start();
+    log("Starting threads", null, false, COMMIT_THREADS);
+    myRunningThreads.set(COMMIT_THREADS);
+    for (int i = 0; i < COMMIT_THREADS; i++) {
+      new Thread(this, "Document commit thread " + (i + 1)).start();
+    }
   }
 
   @Override
@@ -91,7 +105,7 @@ public class DocumentCommitThread implements Runnable, Disposable {
     }
     cancel("Stop thread");
     wakeUpQueue();
-    while (!threadFinished) {
+    while (myRunningThreads.get() > 0) {
       wakeUpQueue();
       synchronized (documentsToCommit) {
         try {
@@ -122,8 +136,13 @@ public class DocumentCommitThread implements Runnable, Disposable {
     }
   }
 
+  // cancels commits in progress
   private void cancel(@NonNls Object reason) {
-    startNewTask(null, reason);
+    synchronized (documentsToCommit) {
+      for (CommitTask task : currentTasks) {
+        task.indicator.cancel();
+      }
+    }
   }
 
   public void queueCommit(@NotNull final Project project, @NotNull final Document document, @NonNls @NotNull Object reason) {
@@ -133,20 +152,35 @@ public class DocumentCommitThread implements Runnable, Disposable {
     PsiFile psiFile = PsiDocumentManager.getInstance(project).getCachedPsiFile(document);
     if (psiFile == null) return;
 
-    doQueue(project, document, reason);
+    doQueue(project, document, reason, isInFocusedEditor(document), System.currentTimeMillis());
   }
 
-  private void doQueue(Project project, Document document, Object reason) {
+  private static boolean isInFocusedEditor(@NotNull Document document) {
+    if (!ApplicationManager.getApplication().isDispatchThread()) return false;
+    for (Editor editor : EditorFactory.getInstance().getEditors(document)) {
+      if (editor.getContentComponent().isFocusOwner()) return true;
+    }
+    return false;
+  }
+
+  private void doQueue(Project project, Document document, Object reason, boolean priority, long queuedTime) {
     synchronized (documentsToCommit) {
       ProgressIndicatorEx indicator = new DaemonProgressIndicator();
       CommitTask newTask = new CommitTask(document, project, indicator, reason);
 
-      markRemovedFromDocsToCommit(newTask);
+      CommitTask queuedTask = removeFromDocsToCommit(newTask); // one commit of the latest document text is enough
       markRemovedCurrentTask(newTask);
       removeFromDocsToApplyInEDT(newTask);
 
-      documentsToCommit.addLast(newTask);
-      log("Queued", newTask, false, reason);
+      newTask.priority = priority || queuedTask != null && queuedTask.priority;
+      newTask.queuedTime = queuedTask == null ? queuedTime : Math.min(queuedTime, queuedTask.queuedTime);
+      int index = documentsToCommit.size();
+      if (newTask.priority) {
+        index = 0;
+        while (index < documentsToCommit.size() && documentsToCommit.get(index).priority) index++;
+      }
+      documentsToCommit.add(index, newTask);
+      log("Queued", newTask, false, reason, priority);
 
       wakeUpQueue();
     }
@@ -157,7 +191,7 @@ public class DocumentCommitThread implements Runnable, Disposable {
     if (true) return;
 
     String indent = new SimpleDateFormat("mm:ss:SSSS").format(new Date()) +
-      (SwingUtilities.isEventDispatchThread() ? "-    " : Thread.currentThread().getName().equals("Document commit thread") ? "-  >" : "-");
+      (SwingUtilities.isEventDispatchThread() ? "-    " : Thread.currentThread().getName().startsWith("Document commit thread") ? "-  >" : "-");
     @NonNls
     String s = indent +
                msg + (synchronously ? " (sync)" : "") +
@@ -190,8 +224,7 @@ public class DocumentCommitThread implements Runnable, Disposable {
   public void cancelAll() {
     synchronized (documentsToCommit) {
       cancel("cancel all in tests");
-      markRemovedFromDocsToCommit(null);
-      documentsToCommit.clear();
+      removeFromDocsToCommit(null);
       removeFromDocsToApplyInEDT(null);
       markRemovedCurrentTask(null);
     }
@@ -215,6 +248,8 @@ public class DocumentCommitThread implements Runnable, Disposable {
     private final ProgressIndicatorEx indicator; // progress to commit this doc under.
     private final Object reason;
     private boolean removed; // task marked as removed, should be ignored.
+    private boolean priority; // document is edited in the focused editor
+    private long queuedTime; // when the oldest of the coalesced commits of the document was queued
 
     private CommitTask(@NotNull Document document,
                        @NotNull Project project,
@@ -252,11 +287,13 @@ public class DocumentCommitThread implements Runnable, Disposable {
     }
   }
 
-  private void markRemovedCurrentTask(@Nullable CommitTask newTask) {
-    CommitTask task = currentTask;
-    if (task != null && (newTask == null || task.equals(newTask))) {
-      task.removed = true;
-      cancel("Sync commit intervened");
+  private void markRemovedCurrentTask(@Nullable("null means all") CommitTask newTask) {
+    for (CommitTask task : currentTasks) {
+      if (newTask == null || task.equals(newTask)) {
+        task.removed = true;
+        task.indicator.cancel();
+        log("Marked as Removed and canceled current task", task, true);
+      }
     }
   }
 
@@ -271,22 +308,44 @@ public class DocumentCommitThread implements Runnable, Disposable {
     }
   }
 
-  private void markRemovedFromDocsToCommit(@Nullable("null means all") final CommitTask newTask) {
-    processAll(new Processor<CommitTask>() {
-      @Override
-      public boolean process(CommitTask task) {
-        if (newTask == null || task.equals(newTask)) {
-          task.removed = true;
-          log("marker as Removed in background queue", task, true);
-        }
-        return true;
+  // returns the removed task for the same document, if any
+  @Nullable
+  private CommitTask removeFromDocsToCommit(@Nullable("null means all") CommitTask newTask) {
+    CommitTask removed = null;
+    for (int i = documentsToCommit.size() - 1; i >= 0; i--) {
+      CommitTask task = documentsToCommit.get(i);
+      if (newTask == null || task.equals(newTask)) {
+        task.removed = true;
+        documentsToCommit.remove(i);
+        log("Marked and Removed from background queue", task, true);
+        removed = task;
+      }
+    }
+    return removed;
+  }
+
+  // the first queued task which document is not being committed by another thread
+  @Nullable
+  private CommitTask pullNextTask() {
+    for (int i = 0; i < documentsToCommit.size(); i++) {
+      CommitTask task = documentsToCommit.get(i);
+      if (!isBeingCommitted(task.document)) {
+        documentsToCommit.remove(i);
+        return task;
       }
-    });
+    }
+    return null;
+  }
+
+  private boolean isBeingCommitted(@NotNull Document document) {
+    for (CommitTask task : currentTasks) {
+      if (task.document == document) return true;
+    }
+    return false;
   }
 
   @Override
   public void run() {
-    threadFinished = false;
     try {
       while (!isDisposed) {
         try {
@@ -298,7 +357,7 @@ public class DocumentCommitThread implements Runnable, Disposable {
       }
     }
     finally {
-      threadFinished = true;
+      myRunningThreads.decrementAndGet();
     }
     // ping the thread waiting for close
     wakeUpQueue();
@@ -313,11 +372,11 @@ public class DocumentCommitThread implements Runnable, Disposable {
     try {
       ProgressIndicator indicator;
       synchronized (documentsToCommit) {
-        if (!myEnabled || documentsToCommit.isEmpty()) {
+        task = myEnabled ? pullNextTask() : null;
+        if (task == null) {
           documentsToCommit.wait();
           return;
         }
-        task = documentsToCommit.pullFirst();
         document = task.document;
         indicator = task.indicator;
         project = task.project;
@@ -333,7 +392,7 @@ public class DocumentCommitThread implements Runnable, Disposable {
           return; // document has been marked as removed, e.g. by synchronous commit
         }
 
-        startNewTask(task, "Pulled new task");
+        currentTasks.add(task);
 
         // transfer to documentsToApplyInEDT
         documentsToApplyInEDT.add(task);
@@ -364,25 +423,33 @@ public class DocumentCommitThread implements Runnable, Disposable {
       }
     }
     catch (ProcessCanceledException e) {
-      cancel(e); // leave queue unchanged
+      cancelTask(task); // leave queue unchanged
       log("PCE", task, false, e);
       success = false;
     }
     catch (InterruptedException e) {
       // app must be closing
       log("IE", task, false, e);
-      cancel(e);
+      cancelTask(task);
     }
     catch (Throwable e) {
       LOG.error(e);
-      cancel(e);
+      cancelTask(task);
     }
+    if (task == null) return;
     synchronized (documentsToCommit) {
       if (!success && !task.removed) { // sync commit has not intervened
         // reset status for queue back successfully
-        doQueue(project, document, "re-added on failure");
+        doQueue(project, document, "re-added on failure", task.priority, task.queuedTime);
       }
-      currentTask = null; // do not cancel, it's being invokeLatered
+      currentTasks.remove(task); // do not cancel, it's being invokeLatered
+      documentsToCommit.notifyAll(); // other threads may wait for this document
+    }
+  }
+
+  private static void cancelTask(@Nullable CommitTask task) {
+    if (task != null) {
+      task.indicator.cancel();
     }
   }
 
@@ -411,7 +478,7 @@ public class DocumentCommitThread implements Runnable, Disposable {
     ProgressIndicatorBase indicator = new ProgressIndicatorBase();
     CommitTask task = new CommitTask(document, project, indicator, "Sync commit");
     synchronized (documentsToCommit) {
-      markRemovedFromDocsToCommit(task);
+      removeFromDocsToCommit(task);
       markRemovedCurrentTask(task);
       removeFromDocsToApplyInEDT(task);
     }
@@ -428,13 +495,51 @@ public class DocumentCommitThread implements Runnable, Disposable {
     wakeUpQueue();
   }
 
-  private void startNewTask(CommitTask task, Object reason) {
-    synchronized (documentsToCommit) { // sync to prevent overwriting
-      CommitTask cur = currentTask;
-      if (cur != null) {
-        cur.indicator.cancel();
-      }
-      currentTask = task;
+  /**
+   * @return number of documents waiting for the background commit
+   */
+  public int getQueueSize() {
+    synchronized (documentsToCommit) {
+      return documentsToCommit.size();
+    }
+  }
+
+  /**
+   * @return number of documents committed in background so far
+   */
+  public int getCommittedCount() {
+    synchronized (documentsToCommit) {
+      return myCommittedCount;
+    }
+  }
+
+  /**
+   * @return average time in ms from the document change to the moment its background commit is applied
+   */
+  public long getAverageCommitLatency() {
+    synchronized (documentsToCommit) {
+      return myCommittedCount == 0 ? 0 : myTotalCommitLatency / myCommittedCount;
+    }
+  }
+
+  public long getMaxCommitLatency() {
+    synchronized (documentsToCommit) {
+      return myMaxCommitLatency;
+    }
+  }
+
+  // called in EDT when the background commit of the task is applied
+  private void backgroundCommitFinished(@NotNull CommitTask task) {
+    long latency = System.currentTimeMillis() - task.queuedTime;
+    int queueSize;
+    synchronized (documentsToCommit) {
+      myCommittedCount++;
+      myTotalCommitLatency += latency;
+      myMaxCommitLatency = Math.max(myMaxCommitLatency, latency);
+      queueSize = documentsToCommit.size();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Committed " + task.document + " in " + latency + "ms; queue size: " + queueSize);
     }
   }
 
@@ -528,6 +633,9 @@ public class DocumentCommitThread implements Runnable, Disposable {
         if (synchronously || success) {
           assert !unc.contains(document) : unc;
         }
+        if (!synchronously && success) {
+          backgroundCommitFinished(task);
+        }
         if (!success) {
           // add document back to the queue
           queueCommit(project, document, "Re-added back");
@@ -720,17 +828,4 @@ public class DocumentCommitThread implements Runnable, Disposable {
     }
   }
 
-  private boolean processAll(final Processor<CommitTask> processor) {
-    final boolean[] result = {true};
-    synchronized (documentsToCommit) {
-      documentsToCommit.process(new Processor<CommitTask>() {
-        @Override
-        public boolean process(CommitTask commitTask) {
-          result[0] &= processor.process(commitTask);
-          return true;
-        }
-      });
-    }
-    return result[0];
-  }
 }
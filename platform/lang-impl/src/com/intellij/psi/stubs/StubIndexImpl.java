@@ -136,7 +136,9 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
           IndexInfrastructure.getStorageFile(indexKey),
           extension.getKeyDescriptor(),
           new StubIdExternalizer(),
-          extension.getCacheSize()
+          extension.getCacheSize(),
+          false,
+          true // StubIdExternalizer is stateless
         );
         final MemoryIndexStorage<K, StubIdList> memStorage = new MemoryIndexStorage<K, StubIdList>(storage);
         myIndices.put(indexKey, new MyIndex<K>(memStorage));
@@ -384,10 +386,10 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
   public <K> void updateIndex(@NotNull StubIndexKey key, int fileId, @NotNull final Map<K, StubIdList> oldValues, @NotNull Map<K, StubIdList> newValues) {
     try {
       final MyIndex<K> index = (MyIndex<K>)myIndices.get(key);
-      index.updateWithMap(fileId, newValues, new Callable<Collection<K>>() {
+      index.updateWithDiff(fileId, newValues, new Callable<Map<K, StubIdList>>() {
         @Override
-        public Collection<K> call() throws Exception {
-          return oldValues.keySet();
+        public Map<K, StubIdList> call() throws Exception {
+          return oldValues;
         }
       });
     }
@@ -406,6 +408,12 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
     public void updateWithMap(final int inputId, @NotNull final Map<K, StubIdList> newData, @NotNull Callable<Collection<K>> oldKeysGetter) throws StorageException {
       super.updateWithMap(inputId, newData, oldKeysGetter);
     }
+
+    @Override
+    public void updateWithDiff(final int inputId, @NotNull Map<K, StubIdList> newData, @NotNull Callable<Map<K, StubIdList>> oldDataGetter)
+      throws StorageException {
+      super.updateWithDiff(inputId, newData, oldDataGetter);
+    }
   }
 
   @Override
@@ -254,14 +254,6 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
       throws StorageException {
 
       checkNameStorage();
-      final Map<StubIndexKey, Map<Object, StubIdList>> newStubTree;
-      try {
-        newStubTree = getStubTree(newData);
-      }
-      catch (SerializerNotFoundException e) {
-        throw new StorageException(e);
-      }
-
       final StubIndexImpl stubIndex = getStubIndex();
       final Collection<StubIndexKey> allStubIndices = stubIndex.getAllStubIndexKeys();
       try {
@@ -274,9 +266,16 @@ public class StubUpdatingIndex extends CustomImplementationFileBasedIndexExtensi
           getWriteLock().lock();
 
           final Map<Integer, SerializedStubTree> oldData = readOldData(inputId);
+          if (oldData.equals(newData)) {
+            // serialized stubs are the same, so are the stub indices: no need to decode either tree
+            super.updateWithMap(inputId, newData, oldKeysGetter);
+            return;
+          }
           final Map<StubIndexKey, Map<Object, StubIdList>> oldStubTree;
+          final Map<StubIndexKey, Map<Object, StubIdList>> newStubTree;
           try {
             oldStubTree = getStubTree(oldData);
+            newStubTree = getStubTree(newData);
           }
           catch (SerializerNotFoundException e) {
             throw new StorageException(e);
@@ -19,6 +19,7 @@ package com.intellij.util.indexing;
 import com.intellij.openapi.util.Computable;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntProcedure;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Iterator;
@@ -97,6 +98,14 @@ class ChangeTrackingValueContainer<Value> extends UpdatableValueContainer<Value>
     return getMergedData().getInputIdsIterator(value);
   }
 
+  /**
+   * @return the lock merged data is computed under, it should also be held while the container is written to the disk
+   */
+  @NotNull
+  public Object getLock() {
+    return myInitializer.getLock();
+  }
+
   public void dropMergedData() {
     myMerged = null;
   }
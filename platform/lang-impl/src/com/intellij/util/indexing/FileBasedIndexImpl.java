@@ -392,7 +392,8 @@ public class FileBasedIndexImpl extends FileBasedIndex {
           extension.getKeyDescriptor(),
           extension.getValueExternalizer(),
           extension.getCacheSize(),
-          extension.isKeyHighlySelective()
+          extension.isKeyHighlySelective(),
+          extension.getValueExternalizer() == ScalarIndexExtension.VOID_DATA_EXTERNALIZER
         );
         final MemoryIndexStorage<K, V> memStorage = new MemoryIndexStorage<K, V>(storage);
         final UpdatableIndex<K, V, FileContent> index = createIndex(name, extension, memStorage);
@@ -491,6 +492,22 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     }
 
     final KeyDescriptor<K> keyDescriptor = extension.getKeyDescriptor();
+    if (extension.keepsForwardIndex()) {
+      final DataExternalizer<V> valueExternalizer = extension.getValueExternalizer();
+      index.setInputIdToDataIndex(new Factory<PersistentHashMap<Integer, Map<K, V>>>() {
+        @Override
+        public PersistentHashMap<Integer, Map<K, V>> create() {
+          try {
+            return createIdToDataIndex(indexId, keyDescriptor, valueExternalizer, storage);
+          }
+          catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      return index;
+    }
+
     index.setInputIdToDataKeysIndex(new Factory<PersistentHashMap<Integer, Collection<K>>>() {
       @Override
       public PersistentHashMap<Integer, Collection<K>> create() {
@@ -506,15 +523,52 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     return index;
   }
 
+  @NotNull
+  private static <K, V> PersistentHashMap<Integer, Map<K, V>> createIdToDataIndex(@NotNull final ID<K, ?> indexId,
+                                                                                  @NotNull final KeyDescriptor<K> keyDescriptor,
+                                                                                  @NotNull final DataExternalizer<V> valueExternalizer,
+                                                                                  @NotNull MemoryIndexStorage<K, ?> storage)
+    throws IOException {
+    final DataExternalizer<Map<K, V>> dataExternalizer = new DataExternalizer<Map<K, V>>() {
+      @Override
+      public void save(DataOutput out, @NotNull Map<K, V> value) throws IOException {
+        try {
+          DataInputOutputUtil.writeINT(out, value.size());
+          for (Map.Entry<K, V> entry : value.entrySet()) {
+            keyDescriptor.save(out, entry.getKey());
+            valueExternalizer.save(out, entry.getValue());
+          }
+        }
+        catch (IllegalArgumentException e) {
+          throw new IOException("Error saving data for index " + indexId, e);
+        }
+      }
+
+      @NotNull
+      @Override
+      public Map<K, V> read(DataInput in) throws IOException {
+        try {
+          final int size = DataInputOutputUtil.readINT(in);
+          final Map<K, V> map = new THashMap<K, V>(size);
+          for (int idx = 0; idx < size; idx++) {
+            final K key = keyDescriptor.read(in);
+            map.put(key, valueExternalizer.read(in));
+          }
+          return map;
+        }
+        catch (IllegalArgumentException e) {
+          throw new IOException("Error reading data for index " + indexId, e);
+        }
+      }
+    };
+    return createInputsIndex(indexId, dataExternalizer, Collections.<K, V>emptyMap(), storage);
+  }
+
   @NotNull
   private static <K> PersistentHashMap<Integer, Collection<K>> createIdToDataKeysIndex(@NotNull final ID<K, ?> indexId,
                                                                                        @NotNull final KeyDescriptor<K> keyDescriptor,
                                                                                        @NotNull MemoryIndexStorage<K, ?> storage)
     throws IOException {
-    final File indexStorageFile = IndexInfrastructure.getInputIndexStorageFile(indexId);
-    final Ref<Boolean> isBufferingMode = new Ref<Boolean>(false);
-    final TIntObjectHashMap<Collection<K>> tempMap = new TIntObjectHashMap<Collection<K>>();
-
     final DataExternalizer<Collection<K>> dataExternalizer = new DataExternalizer<Collection<K>>() {
       @Override
       public void save(DataOutput out, @NotNull Collection<K> value) throws IOException {
@@ -545,6 +599,17 @@ public class FileBasedIndexImpl extends FileBasedIndex {
         }
       }
     };
+    return createInputsIndex(indexId, dataExternalizer, Collections.<K>emptySet(), storage);
+  }
+
+  @NotNull
+  private static <T> PersistentHashMap<Integer, T> createInputsIndex(@NotNull ID<?, ?> indexId,
+                                                                     @NotNull DataExternalizer<T> dataExternalizer,
+                                                                     @NotNull final T emptyData,
+                                                                     @NotNull MemoryIndexStorage<?, ?> storage) throws IOException {
+    final File indexStorageFile = IndexInfrastructure.getInputIndexStorageFile(indexId);
+    final Ref<Boolean> isBufferingMode = new Ref<Boolean>(false);
+    final TIntObjectHashMap<T> tempMap = new TIntObjectHashMap<T>();
 
     // Important! Update IdToDataKeysIndex depending on the sate of "buffering" flag from the MemoryStorage.
     // If buffering is on, all changes should be done in memory (similar to the way it is done in memory storage).
@@ -552,35 +617,35 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     // wrong sets of keys for the given file. This will lead to unpredictable results in main index because it will not be
     // cleared properly before updating (removed data will still be present on disk). See IDEA-52223 for illustration of possible effects.
 
-    final PersistentHashMap<Integer, Collection<K>> map = new PersistentHashMap<Integer, Collection<K>>(
+    final PersistentHashMap<Integer, T> map = new PersistentHashMap<Integer, T>(
       indexStorageFile, EnumeratorIntegerDescriptor.INSTANCE, dataExternalizer
     ) {
 
       @Override
-      protected Collection<K> doGet(Integer integer) throws IOException {
+      protected T doGet(Integer integer) throws IOException {
         if (isBufferingMode.get()) {
-          final Collection<K> collection = tempMap.get(integer);
-          if (collection != null) {
-            return collection;
+          final T data = tempMap.get(integer);
+          if (data != null) {
+            return data;
           }
         }
         return super.doGet(integer);
       }
 
       @Override
-      protected void doPut(Integer integer, @Nullable Collection<K> ks) throws IOException {
+      protected void doPut(Integer integer, @Nullable T data) throws IOException {
         if (isBufferingMode.get()) {
-          tempMap.put(integer, ks == null ? Collections.<K>emptySet() : ks);
+          tempMap.put(integer, data == null ? emptyData : data);
         }
         else {
-          super.doPut(integer, ks);
+          super.doPut(integer, data);
         }
       }
 
       @Override
       protected void doRemove(Integer integer) throws IOException {
         if (isBufferingMode.get()) {
-          tempMap.put(integer, Collections.<K>emptySet());
+          tempMap.put(integer, emptyData);
         }
         else {
           super.doRemove(integer);
@@ -1073,51 +1138,23 @@ public class FileBasedIndexImpl extends FileBasedIndex {
         @Nullable
         @Override
         public TIntHashSet convert(@NotNull UpdatableIndex<K, V, FileContent> index) throws StorageException {
-          TIntHashSet mainIntersection = null;
+          if (dataKeys.isEmpty()) return null;
 
+          final List<ValueContainer<V>> containers = new ArrayList<ValueContainer<V>>(dataKeys.size());
           for (K dataKey : dataKeys) {
             ProgressManager.checkCanceled();
-            final TIntHashSet copy = new TIntHashSet();
-            final ValueContainer<V> container = index.getData(dataKey);
-
-            for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
-              final V value = valueIt.next();
-              if (valueChecker != null && !valueChecker.value(value)) {
-                continue;
-              }
-
-              ValueContainer.IntIterator iterator = container.getInputIdsIterator(value);
-
-              if (mainIntersection == null || iterator.size() < mainIntersection.size()) {
-                while (iterator.hasNext()) {
-                  final int id = iterator.next();
-                  if (mainIntersection == null && (projectFilesFilter == null || projectFilesFilter.contains(id)) ||
-                      mainIntersection != null && mainIntersection.contains(id)
-                    ) {
-                    copy.add(id);
-                  }
-                }
-              }
-              else {
-                mainIntersection.forEach(new TIntProcedure() {
-                  final ValueContainer.IntPredicate predicate = container.getValueAssociationPredicate(value);
-
-                  @Override
-                  public boolean execute(int id) {
-                    if (predicate.contains(id)) copy.add(id);
-                    return true;
-                  }
-                });
-              }
-            }
-
-            mainIntersection = copy;
-            if (mainIntersection.isEmpty()) {
-              return new TIntHashSet();
-            }
+            containers.add(index.getData(dataKey));
           }
 
-          return mainIntersection;
+          final TIntHashSet intersection = new TIntHashSet();
+          InputIdsIntersection.processIds(containers, valueChecker, new TIntProcedure() {
+            @Override
+            public boolean execute(int id) {
+              if (projectFilesFilter == null || projectFilesFilter.contains(id)) intersection.add(id);
+              return true;
+            }
+          });
+          return intersection;
         }
       };
 
@@ -1153,8 +1190,8 @@ public class FileBasedIndexImpl extends FileBasedIndex {
   @Override
   public <K, V> boolean getFilesWithKey(@NotNull final ID<K, V> indexId,
                                         @NotNull final Set<K> dataKeys,
-                                        @NotNull Processor<VirtualFile> processor,
-                                        @NotNull GlobalSearchScope filter) {
+                                        @NotNull final Processor<VirtualFile> processor,
+                                        @NotNull final GlobalSearchScope filter) {
     try {
       final UpdatableIndex<K, V, FileContent> index = getIndex(indexId);
       if (index == null) {
@@ -1166,46 +1203,22 @@ public class FileBasedIndexImpl extends FileBasedIndex {
 
       try {
         index.getReadLock().lock();
-        final List<TIntHashSet> locals = new ArrayList<TIntHashSet>();
+        final List<ValueContainer<V>> containers = new ArrayList<ValueContainer<V>>(dataKeys.size());
         for (K dataKey : dataKeys) {
-          TIntHashSet local = new TIntHashSet();
-          locals.add(local);
-          final ValueContainer<V> container = index.getData(dataKey);
-
-          for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
-            final V value = valueIt.next();
-            for (final ValueContainer.IntIterator inputIdsIterator = container.getInputIdsIterator(value); inputIdsIterator.hasNext(); ) {
-              final int id = inputIdsIterator.next();
-              local.add(id);
-            }
-          }
+          containers.add(index.getData(dataKey));
         }
 
-        if (locals.isEmpty()) {
-          return true;
-        }
-
-        Collections.sort(locals, new Comparator<TIntHashSet>() {
+        final PersistentFS fs = (PersistentFS)ManagingFS.getInstance();
+        final ProjectIndexableFilesFilter projectIndexableFilesFilter = projectIndexableFiles(project);
+        return InputIdsIntersection.processIds(containers, null, new TIntProcedure() {
           @Override
-          public int compare(TIntHashSet o1, TIntHashSet o2) {
-            return o1.size() - o2.size();
+          public boolean execute(int id) {
+            if (projectIndexableFilesFilter != null && !projectIndexableFilesFilter.contains(id)) return true;
+            //VirtualFile file = IndexInfrastructure.findFileById(fs, id);
+            VirtualFile file = IndexInfrastructure.findFileByIdIfCached(fs, id);
+            return file == null || !filter.accept(file) || processor.process(file);
           }
         });
-
-        final PersistentFS fs = (PersistentFS)ManagingFS.getInstance();
-        TIntIterator ids = join(locals).iterator();
-        ProjectIndexableFilesFilter projectIndexableFilesFilter = projectIndexableFiles(project);
-        while (ids.hasNext()) {
-          int id = ids.next();
-          if (projectIndexableFilesFilter != null && !projectIndexableFilesFilter.contains(id)) continue;
-          //VirtualFile file = IndexInfrastructure.findFileById(fs, id);
-          VirtualFile file = IndexInfrastructure.findFileByIdIfCached(fs, id);
-          if (file != null && filter.accept(file)) {
-            if (!processor.process(file)) {
-              return false;
-            }
-          }
-        }
       }
       finally {
         index.getReadLock().unlock();
@@ -1226,25 +1239,6 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     return true;
   }
 
-  @NotNull
-  private static TIntHashSet join(@NotNull List<TIntHashSet> locals) {
-    TIntHashSet result = locals.get(0);
-    if (locals.size() > 1) {
-      TIntIterator it = result.iterator();
-
-      while (it.hasNext()) {
-        int id = it.next();
-        for (int i = 1; i < locals.size(); i++) {
-          if (!locals.get(i).contains(id)) {
-            it.remove();
-            break;
-          }
-        }
-      }
-    }
-    return result;
-  }
-
   @Override
   public <K> void scheduleRebuild(@NotNull final ID<K, ?> indexId, @NotNull final Throwable e) {
     requestRebuild(indexId, new Throwable(e));
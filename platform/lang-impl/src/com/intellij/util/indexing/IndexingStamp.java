@@ -20,15 +20,16 @@ import com.intellij.openapi.vfs.InvalidVirtualFileAccessException;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.FileAttribute;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
-import com.intellij.util.containers.ConcurrentHashMap;
+import com.intellij.util.containers.ConcurrentIntObjectMap;
+import com.intellij.util.containers.StripedLockIntObjectConcurrentHashMap;
 import com.intellij.util.io.DataInputOutputUtil;
-import gnu.trove.TObjectLongHashMap;
-import gnu.trove.TObjectLongProcedure;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
 
 /**
@@ -40,12 +41,17 @@ public class IndexingStamp {
   }
 
   /**
-   * The class is meant to be accessed from synchronized block only 
+   * Stamps of one file, packed as (index id << 48 | stamp) into an array which is replaced on every modification,
+   * so reads need no locking. Modifications are made under the instance lock.
    */
   private static class Timestamps {
     private static final FileAttribute PERSISTENCE = new FileAttribute("__index_stamps__", 1, false);
-    private TObjectLongHashMap<ID<?, ?>> myIndexStamps;
-    private boolean myIsDirty = false;
+    private static final long[] EMPTY = new long[0];
+    private static final int ID_SHIFT = 48;
+    private static final long STAMP_MASK = (1L << ID_SHIFT) - 1;
+    private volatile long[] myIndexStamps = EMPTY;
+    private volatile boolean myIsDirty = false;
+    private boolean myIsEvicted = false; // persisted and removed from the cache, should not be modified anymore
 
     private Timestamps(@Nullable DataInputStream stream) throws IOException {
       if (stream != null) {
@@ -56,8 +62,7 @@ public class IndexingStamp {
             ID<?, ?> id = ID.findById(DataInputOutputUtil.readINT(stream));
             if (id != null) {
               long stamp = IndexInfrastructure.getIndexCreationStamp(id);
-              if (myIndexStamps == null) myIndexStamps = new TObjectLongHashMap<ID<?, ?>>(5, 0.98f);
-              if (stamp <= dominatingIndexStamp) myIndexStamps.put(id, stamp);
+              if (stamp <= dominatingIndexStamp) myIndexStamps = put(myIndexStamps, id, stamp);
             }
           }
         }
@@ -68,61 +73,89 @@ public class IndexingStamp {
     }
 
     private void writeToStream(final DataOutputStream stream) throws IOException {
-      if (myIndexStamps != null && !myIndexStamps.isEmpty()) {
-        final long[] dominatingIndexStamp = new long[1];
-        myIndexStamps.forEachEntry(
-          new TObjectLongProcedure<ID<?, ?>>() {
-            @Override
-            public boolean execute(ID<?, ?> a, long b) {
-              dominatingIndexStamp[0] = Math.max(dominatingIndexStamp[0], b);
-              return true;
-            }
-          }
-        );
-        DataInputOutputUtil.writeTIME(stream, dominatingIndexStamp[0]);
-        myIndexStamps.forEachEntry(new TObjectLongProcedure<ID<?, ?>>() {
-          @Override
-          public boolean execute(final ID<?, ?> id, final long timestamp) {
-            try {
-              DataInputOutputUtil.writeINT(stream, id.getUniqueId());
-              return true;
-            }
-            catch (IOException e) {
-              throw new RuntimeException(e);
-            }
-          }
-        });
+      long[] stamps = myIndexStamps;
+      if (stamps.length > 0) {
+        long dominatingIndexStamp = 0;
+        for (long entry : stamps) {
+          dominatingIndexStamp = Math.max(dominatingIndexStamp, entry & STAMP_MASK);
+        }
+        DataInputOutputUtil.writeTIME(stream, dominatingIndexStamp);
+        for (long entry : stamps) {
+          DataInputOutputUtil.writeINT(stream, (int)(entry >>> ID_SHIFT));
+        }
       } else {
         DataInputOutputUtil.writeTIME(stream, DataInputOutputUtil.timeBase);
       }
     }
 
-    public long get(ID<?, ?> id) {
-      return myIndexStamps != null? myIndexStamps.get(id) : 0L;
+    private static int indexOf(@NotNull long[] stamps, @NotNull ID<?, ?> id) {
+      for (int i = 0; i < stamps.length; i++) {
+        if ((int)(stamps[i] >>> ID_SHIFT) == id.getUniqueId()) return i;
+      }
+      return -1;
     }
 
-    public void set(ID<?, ?> id, long tmst) {
-      try {
-        if (tmst < 0) {
-          if (myIndexStamps == null) return;
-          myIndexStamps.remove(id);
-          return;
-        }
-        if (myIndexStamps == null) myIndexStamps = new TObjectLongHashMap<ID<?, ?>>(5, 0.98f);
-
-        myIndexStamps.put(id, tmst);
+    @NotNull
+    private static long[] put(@NotNull long[] stamps, @NotNull ID<?, ?> id, long tmst) {
+      int index = indexOf(stamps, id);
+      long[] result;
+      if (index >= 0) {
+        result = stamps.clone();
       }
-      finally {
-        myIsDirty = true;
+      else {
+        result = Arrays.copyOf(stamps, stamps.length + 1);
+        index = stamps.length;
       }
+      result[index] = (long)id.getUniqueId() << ID_SHIFT | tmst & STAMP_MASK;
+      return result;
+    }
+
+    @NotNull
+    private static long[] remove(@NotNull long[] stamps, @NotNull ID<?, ?> id) {
+      int index = indexOf(stamps, id);
+      if (index < 0) return stamps;
+      long[] result = new long[stamps.length - 1];
+      System.arraycopy(stamps, 0, result, 0, index);
+      System.arraycopy(stamps, index + 1, result, index, result.length - index);
+      return result;
+    }
+
+    public long get(ID<?, ?> id) {
+      long[] stamps = myIndexStamps;
+      int index = indexOf(stamps, id);
+      return index >= 0 ? stamps[index] & STAMP_MASK : 0L;
+    }
+
+    /**
+     * @return false if the instance is evicted and the stamp should be set to the one currently cached
+     */
+    public synchronized boolean set(ID<?, ?> id, long tmst) {
+      if (myIsEvicted) return false;
+      myIndexStamps = tmst < 0 ? remove(myIndexStamps, id) : put(myIndexStamps, id, tmst);
+      myIsDirty = true;
+      return true;
     }
 
     public boolean isDirty() {
       return myIsDirty;
     }
+
+    private synchronized void persistAndEvict(@NotNull VirtualFile file) throws IOException {
+      myIsEvicted = true;
+      if (myIsDirty && file.isValid()) {
+        final DataOutputStream sink = PERSISTENCE.writeAttribute(file);
+        writeToStream(sink);
+        sink.close();
+      }
+    }
   }
 
-  private static final ConcurrentHashMap<VirtualFile, Timestamps> myTimestampsCache = new ConcurrentHashMap<VirtualFile, Timestamps>();
+  // file id -> stamps, lookups are lock-free, loading and eviction of a file are serialized by its stripe lock
+  private static final ConcurrentIntObjectMap<Timestamps> myTimestampsCache = new StripedLockIntObjectConcurrentHashMap<Timestamps>();
+  private static final Object[] ourLoadingLocks = new Object[64];
+  static {
+    for (int i = 0; i < ourLoadingLocks.length; i++) ourLoadingLocks[i] = new Object();
+  }
   private static final int CAPACITY = 100;
   private static final ArrayBlockingQueue<VirtualFile> myFinishedFiles = new ArrayBlockingQueue<VirtualFile>(CAPACITY);
 
@@ -141,19 +174,23 @@ public class IndexingStamp {
   }
 
   public static long getIndexStamp(VirtualFile file, ID<?, ?> indexName) {
-    synchronized (myTimestampsCache) {
-      Timestamps stamp = createOrGetTimeStamp(file);
-      if (stamp != null) return stamp.get(indexName);
-      return 0;
-    }
+    Timestamps stamp = createOrGetTimeStamp(file);
+    if (stamp != null) return stamp.get(indexName);
+    return 0;
+  }
+
+  @NotNull
+  private static Object getLoadingLock(int fileId) {
+    return ourLoadingLocks[fileId & (ourLoadingLocks.length - 1)];
   }
 
   private static Timestamps createOrGetTimeStamp(VirtualFile file) {
     if (file instanceof NewVirtualFile && file.isValid()) {
-      Timestamps timestamps = myTimestampsCache.get(file);
+      final int fileId = ((NewVirtualFile)file).getId();
+      Timestamps timestamps = myTimestampsCache.get(fileId);
       if (timestamps == null) {
-        synchronized (myTimestampsCache) { // avoid synchroneous reads TODO:
-          timestamps = myTimestampsCache.get(file);
+        synchronized (getLoadingLock(fileId)) {
+          timestamps = myTimestampsCache.get(fileId);
           if (timestamps == null) {
             final DataInputStream stream = Timestamps.PERSISTENCE.readAttribute(file);
             try {
@@ -162,7 +199,7 @@ public class IndexingStamp {
             catch (IOException e) {
               throw new RuntimeException(e);
             }
-            myTimestampsCache.put(file, timestamps);
+            myTimestampsCache.put(fileId, timestamps);
           }
         }
       }
@@ -172,14 +209,14 @@ public class IndexingStamp {
   }
 
   public static void update(final VirtualFile file, final ID<?, ?> indexName, final long indexCreationStamp) {
-    synchronized (myTimestampsCache) {
-      try {
+    try {
+      while (true) {
         Timestamps stamp = createOrGetTimeStamp(file);
-        if (stamp != null) stamp.set(indexName, indexCreationStamp);
-      }
-      catch (InvalidVirtualFileAccessException ignored /*ok to ignore it here*/) {
+        if (stamp == null || stamp.set(indexName, indexCreationStamp)) break;
       }
     }
+    catch (InvalidVirtualFileAccessException ignored /*ok to ignore it here*/) {
+    }
   }
 
   public static void flushCache(@Nullable VirtualFile finishedFile) {
@@ -195,20 +232,19 @@ public class IndexingStamp {
 
       if (files != null) {
         for(VirtualFile file:files) {
-          synchronized (myTimestampsCache) {
-            Timestamps timestamp = myTimestampsCache.remove(file);
+          if (!(file instanceof NewVirtualFile)) continue;
+          final int fileId = ((NewVirtualFile)file).getId();
+          synchronized (getLoadingLock(fileId)) {
+            Timestamps timestamp = myTimestampsCache.get(fileId);
             if (timestamp == null) continue;
-            synchronized (myTimestampsCache) {
-              try {
-                if (timestamp.isDirty() && file.isValid()) {
-                  final DataOutputStream sink = Timestamps.PERSISTENCE.writeAttribute(file);
-                  timestamp.writeToStream(sink);
-                  sink.close();
-                }
-              }
-              catch (IOException e) {
-                throw new RuntimeException(e);
-              }
+            try {
+              timestamp.persistAndEvict(file);
+            }
+            catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+            finally {
+              myTimestampsCache.remove(fileId);
             }
           }
         }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.openapi.util.Condition;
+import gnu.trove.TIntProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Intersects input ids of several value containers without copying their posting lists. Ids of the smallest container are
+ * checked against the others, most selective first, so the work is proportional to the smallest posting list and most
+ * candidates are rejected by the first check. Processing stops as soon as the consumer returns false.
+ */
+class InputIdsIntersection {
+  private InputIdsIntersection() {
+  }
+
+  /**
+   * Should be called under the index read lock.
+   * @param valueChecker if not null, only ids associated with accepted values are considered
+   * @return false if the processor stopped the processing
+   */
+  static <V> boolean processIds(@NotNull List<? extends ValueContainer<V>> containers,
+                                @Nullable Condition<V> valueChecker,
+                                @NotNull TIntProcedure processor) {
+    final int count = containers.size();
+    if (count == 0) return true;
+
+    final int[] sizes = new int[count];
+    final int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      sizes[i] = getIdsCount(containers.get(i), valueChecker);
+      if (sizes[i] == 0) return true; // nothing can be in the intersection
+      order[i] = i;
+    }
+    // few keys per query, insertion sort by posting list size is enough
+    for (int i = 1; i < count; i++) {
+      final int index = order[i];
+      int j = i - 1;
+      for (; j >= 0 && sizes[order[j]] > sizes[index]; j--) {
+        order[j + 1] = order[j];
+      }
+      order[j + 1] = index;
+    }
+
+    final ValueContainer.IntPredicate[][] filters = new ValueContainer.IntPredicate[count - 1][];
+    for (int i = 1; i < count; i++) {
+      filters[i - 1] = getPredicates(containers.get(order[i]), valueChecker);
+    }
+
+    final ValueContainer<V> smallest = containers.get(order[0]);
+    for (final Iterator<V> valueIt = smallest.getValueIterator(); valueIt.hasNext(); ) {
+      final V value = valueIt.next();
+      if (valueChecker != null && !valueChecker.value(value)) continue;
+
+      candidates:
+      for (final ValueContainer.IntIterator ids = smallest.getInputIdsIterator(value); ids.hasNext(); ) {
+        final int id = ids.next();
+        for (ValueContainer.IntPredicate[] predicates : filters) {
+          if (!containsAny(predicates, id)) continue candidates;
+        }
+        if (!processor.execute(id)) return false;
+      }
+    }
+    return true;
+  }
+
+  private static <V> int getIdsCount(@NotNull ValueContainer<V> container, @Nullable Condition<V> valueChecker) {
+    int idsCount = 0;
+    for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
+      final V value = valueIt.next();
+      if (valueChecker == null || valueChecker.value(value)) {
+        idsCount += container.getInputIdsIterator(value).size();
+      }
+    }
+    return idsCount;
+  }
+
+  @NotNull
+  private static <V> ValueContainer.IntPredicate[] getPredicates(@NotNull ValueContainer<V> container, @Nullable Condition<V> valueChecker) {
+    final List<ValueContainer.IntPredicate> predicates = new ArrayList<ValueContainer.IntPredicate>(1);
+    for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
+      final V value = valueIt.next();
+      if (valueChecker == null || valueChecker.value(value)) {
+        predicates.add(container.getValueAssociationPredicate(value));
+      }
+    }
+    return predicates.toArray(new ValueContainer.IntPredicate[predicates.size()]);
+  }
+
+  private static boolean containsAny(@NotNull ValueContainer.IntPredicate[] predicates, int id) {
+    for (ValueContainer.IntPredicate predicate : predicates) {
+      if (predicate.contains(id)) return true;
+    }
+    return false;
+  }
+}
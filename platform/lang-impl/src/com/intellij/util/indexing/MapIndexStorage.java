@@ -20,6 +20,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.SLRUCache;
 import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.KeyDescriptor;
@@ -29,9 +30,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -41,8 +40,12 @@ import java.util.concurrent.locks.ReentrantLock;
 */
 public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Value>{
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.indexing.MapIndexStorage");
+  private static final int WRITE_BEHIND_BATCH_SIZE = SystemProperties.getIntProperty("idea.index.write.behind.batch.size", 1024);
+
   private PersistentMap<Key, ValueContainer<Value>> myMap;
   private SLRUCache<Key, ChangeTrackingValueContainer<Value>> myCache;
+  // changed value containers that are no longer cached, they are written to the map in one batch ordered by key hash
+  private final Map<Key, ChangeTrackingValueContainer<Value>> myPendingWrites = new HashMap<Key, ChangeTrackingValueContainer<Value>>();
   private final File myStorageFile;
   private final KeyDescriptor<Key> myKeyDescriptor;
   private final int myCacheSize;
@@ -50,6 +53,7 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
   private final Lock l = new ReentrantLock();
   private final DataExternalizer<Value> myDataExternalizer;
   private boolean myHighKeySelectivity;
+  private final boolean myConcurrentReads;
 
   public MapIndexStorage(@NotNull File storageFile,
                          @NotNull KeyDescriptor<Key> keyDescriptor,
@@ -64,55 +68,44 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
                          @NotNull DataExternalizer<Value> valueExternalizer,
                          final int cacheSize,
                          boolean highKeySelectivity) throws IOException {
+    this(storageFile, keyDescriptor, valueExternalizer, cacheSize, highKeySelectivity, false);
+  }
+
+  /**
+   * @param concurrentReads true if value externalizer can be called from several threads, then value containers of different keys
+   *                        are read from the disk concurrently
+   */
+  public MapIndexStorage(@NotNull File storageFile,
+                         @NotNull KeyDescriptor<Key> keyDescriptor,
+                         @NotNull DataExternalizer<Value> valueExternalizer,
+                         final int cacheSize,
+                         boolean highKeySelectivity,
+                         boolean concurrentReads) throws IOException {
 
     myStorageFile = storageFile;
     myKeyDescriptor = keyDescriptor;
     myCacheSize = cacheSize;
     myDataExternalizer = valueExternalizer;
     myHighKeySelectivity = highKeySelectivity;
+    myConcurrentReads = concurrentReads;
     initMapAndCache();
   }
 
   private void initMapAndCache() throws IOException {
-    final ValueContainerMap<Key, Value> map = new ValueContainerMap<Key, Value>(myStorageFile, myKeyDescriptor, myDataExternalizer);
+    final ValueContainerMap<Key, Value> map = new ValueContainerMap<Key, Value>(myStorageFile, myKeyDescriptor, myDataExternalizer, myConcurrentReads);
     myCache = new SLRUCache<Key, ChangeTrackingValueContainer<Value>>(myCacheSize, (int)(Math.ceil(myCacheSize * 0.25)) /* 25% from the main cache size*/) {
       @Override
       @NotNull
       public ChangeTrackingValueContainer<Value> createValue(final Key key) {
-        return new ChangeTrackingValueContainer<Value>(new ChangeTrackingValueContainer.Initializer<Value>() {
-          @NotNull
-          @Override
-          public Object getLock() {
-            return map.getDataAccessLock();
-          }
-
-          @Nullable
-          @Override
-          public ValueContainer<Value> compute() {
-            ValueContainer<Value> value;
-            try {
-              value = map.get(key);
-              if (value == null) {
-                value = new ValueContainerImpl<Value>();
-              }
-            }
-            catch (IOException e) {
-              throw new RuntimeException(e);
-            }
-            return value;
-          }
-        });
+        ChangeTrackingValueContainer<Value> pending = myPendingWrites.remove(key);
+        return pending != null ? pending : createValueContainer(map, key);
       }
 
       @Override
       protected void onDropFromCache(final Key key, @NotNull final ChangeTrackingValueContainer<Value> valueContainer) {
         if (valueContainer.isDirty()) {
-          try {
-            map.put(key, valueContainer);
-          }
-          catch (IOException e) {
-            throw new RuntimeException(e);
-          }
+          valueContainer.dropMergedData(); // will be recomputed from the map and the changes if the key is requested before the write
+          addPendingWrite(key, valueContainer);
         }
       }
     };
@@ -120,12 +113,81 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
     myMap = map;
   }
 
+  @NotNull
+  private static <Key, Value> ChangeTrackingValueContainer<Value> createValueContainer(@NotNull final ValueContainerMap<Key, Value> map,
+                                                                                      final Key key) {
+    return new ChangeTrackingValueContainer<Value>(new ChangeTrackingValueContainer.Initializer<Value>() {
+      // map reads don't need its lock then, so containers of different keys are loaded in parallel
+      private final Object myLock = map.isReadConcurrently() ? new Object() : map.getDataAccessLock();
+
+      @NotNull
+      @Override
+      public Object getLock() {
+        return myLock;
+      }
+
+      @Nullable
+      @Override
+      public ValueContainer<Value> compute() {
+        ValueContainer<Value> value;
+        try {
+          value = map.get(key);
+          if (value == null) {
+            value = new ValueContainerImpl<Value>();
+          }
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        return value;
+      }
+    });
+  }
+
+  private void addPendingWrite(Key key, @NotNull ChangeTrackingValueContainer<Value> valueContainer) {
+    myPendingWrites.put(key, valueContainer);
+    if (myPendingWrites.size() >= WRITE_BEHIND_BATCH_SIZE) {
+      flushPendingWrites();
+    }
+  }
+
+  private void flushPendingWrites() {
+    if (myPendingWrites.isEmpty()) return;
+
+    List<Key> keys = new ArrayList<Key>(myPendingWrites.keySet());
+    // keys are stored by hash in the map's enumerator, so the batch touches its pages in order
+    Collections.sort(keys, new Comparator<Key>() {
+      @Override
+      public int compare(Key key1, Key key2) {
+        int hash1 = myKeyDescriptor.getHashCode(key1);
+        int hash2 = myKeyDescriptor.getHashCode(key2);
+        return hash1 < hash2 ? -1 : hash1 == hash2 ? 0 : 1;
+      }
+    });
+
+    for (Key key : keys) {
+      ChangeTrackingValueContainer<Value> container = myPendingWrites.get(key);
+      // a thread which has read the container before it was dropped from the cache may be computing its merged data from the map,
+      // so the container is written under the same lock, taken before the map's one as in reads
+      synchronized (container.getLock()) {
+        try {
+          myMap.put(key, container);
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      myPendingWrites.remove(key);
+    }
+  }
+
   @Override
   public void flush() {
     l.lock();
     try {
       if (!myMap.isClosed() && myMap.isDirty()) {
         myCache.clear();
+        flushPendingWrites();
         myMap.force();
       }
     }
@@ -157,7 +219,18 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
 
   @Override
   public void clear() throws StorageException{
+    l.lock();
+    try {
+      doClear();
+    }
+    finally {
+      l.unlock();
+    }
+  }
+
+  private void doClear() throws StorageException {
     try {
+      myPendingWrites.clear();
       myMap.close();
     }
     catch (IOException e) {
@@ -187,6 +260,7 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
     l.lock();
     try {
       myCache.clear(); // this will ensure that all new keys are made into the map
+      flushPendingWrites();
       return myMap.processKeys(processor);
     }
     catch (IOException e) {
@@ -246,19 +320,37 @@ public final class MapIndexStorage<Key, Value> implements IndexStorage<Key, Valu
         return;
       }
 
-      ChangeTrackingValueContainer<Value> cached = myCache.getIfCached(key);
-      if (cached != null) {
-        cached.addValue(inputId, value);
-        return;
+      l.lock();
+      try {
+        ChangeTrackingValueContainer<Value> cached = myCache.getIfCached(key);
+        if (cached != null) {
+          cached.addValue(inputId, value);
+          return;
+        }
+        // do not pollute the cache with highly selective data, write it behind with the other changes
+        ChangeTrackingValueContainer<Value> pending = myPendingWrites.get(key);
+        if (pending != null) {
+          pending.addValue(inputId, value);
+          return;
+        }
+        pending = createValueContainer((ValueContainerMap<Key, Value>)myMap, key);
+        pending.addValue(inputId, value);
+        addPendingWrite(key, pending);
+      }
+      finally {
+        l.unlock();
       }
-      // do not pollute the cache with highly selective data
-      ChangeTrackingValueContainer<Value> valueContainer = new ChangeTrackingValueContainer<Value>(null);
-      valueContainer.addValue(inputId, value);
-      myMap.put(key, valueContainer);
     }
     catch (IOException e) {
       throw new StorageException(e);
     }
+    catch (RuntimeException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw new StorageException(cause);
+      }
+      throw e;
+    }
   }
 
   @Override
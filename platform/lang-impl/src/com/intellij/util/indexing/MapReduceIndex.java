@@ -17,6 +17,7 @@
 package com.intellij.util.indexing;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Factory;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.FileUtil;
@@ -45,10 +46,13 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
   private final DataIndexer<Key, Value, Input> myIndexer;
   @NotNull protected final IndexStorage<Key, Value> myStorage;
   @Nullable private PersistentHashMap<Integer, Collection<Key>> myInputsIndex;
+  // inputId -> data of the input, used instead of myInputsIndex when values of previous data are needed for updates
+  @Nullable private PersistentHashMap<Integer, Map<Key, Value>> myForwardIndex;
 
   private final ReentrantReadWriteLock myLock = new ReentrantReadWriteLock();
   
   private Factory<PersistentHashMap<Integer, Collection<Key>>> myInputsIndexFactory;
+  private Factory<PersistentHashMap<Integer, Map<Key, Value>>> myForwardIndexFactory;
 
 
   public MapReduceIndex(@Nullable final ID<Key, Value> indexId, DataIndexer<Key, Value, Input> indexer, @NotNull IndexStorage<Key, Value> storage) {
@@ -77,6 +81,16 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
         FileUtil.delete(baseFile);
         myInputsIndex = createInputsIndex();
       }
+      if (myForwardIndex != null) {
+        final File baseFile = myForwardIndex.getBaseFile();
+        try {
+          myForwardIndex.close();
+        }
+        catch (IOException ignored) {
+        }
+        FileUtil.delete(baseFile);
+        myForwardIndex = createForwardIndex();
+      }
     }
     catch (StorageException e) {
       LOG.error(e);
@@ -97,6 +111,10 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
       if (inputsIndex != null && inputsIndex.isDirty()) {
         inputsIndex.force();
       }
+      final PersistentHashMap<Integer, Map<Key, Value>> forwardIndex = myForwardIndex;
+      if (forwardIndex != null && forwardIndex.isDirty()) {
+        forwardIndex.force();
+      }
       myStorage.flush();
     }
     catch (IOException e) {
@@ -133,6 +151,14 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
             LOG.error(e);
           }
         }
+        if (myForwardIndex != null) {
+          try {
+            myForwardIndex.close();
+          }
+          catch (IOException e) {
+            LOG.error(e);
+          }
+        }
       }
     }
     catch (StorageException e) {
@@ -191,9 +217,27 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
     myInputsIndex = createInputsIndex();
   }
 
+  /**
+   * Makes the index keep data of every input, so that updates only touch the keys whose values changed.
+   * Replaces the index set by {@link #setInputIdToDataKeysIndex}.
+   */
+  public void setInputIdToDataIndex(Factory<PersistentHashMap<Integer, Map<Key, Value>>> factory) throws IOException {
+    myForwardIndexFactory = factory;
+    myForwardIndex = createForwardIndex();
+  }
+
   @Nullable
   private PersistentHashMap<Integer, Collection<Key>> createInputsIndex() throws IOException {
-    Factory<PersistentHashMap<Integer, Collection<Key>>> factory = myInputsIndexFactory;
+    return create(myInputsIndexFactory);
+  }
+
+  @Nullable
+  private PersistentHashMap<Integer, Map<Key, Value>> createForwardIndex() throws IOException {
+    return create(myForwardIndexFactory);
+  }
+
+  @Nullable
+  private static <T> PersistentHashMap<Integer, T> create(@Nullable Factory<PersistentHashMap<Integer, T>> factory) throws IOException {
     if (factory != null) {
       try {
         return factory.create();
@@ -210,10 +254,22 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
 
   @Override
   public final void update(final int inputId, @Nullable Input content) throws StorageException {
-    assert myInputsIndex != null;
-
     final Map<Key, Value> data = content != null ? myIndexer.map(content) : Collections.<Key, Value>emptyMap();
 
+    final PersistentHashMap<Integer, Map<Key, Value>> forwardIndex = myForwardIndex;
+    if (forwardIndex != null) {
+      updateWithDiff(inputId, data, new Callable<Map<Key, Value>>() {
+        @Override
+        public Map<Key, Value> call() throws Exception {
+          final Map<Key, Value> oldData = forwardIndex.get(inputId);
+          return oldData == null ? Collections.<Key, Value>emptyMap() : oldData;
+        }
+      });
+      return;
+    }
+
+    assert myInputsIndex != null;
+
     updateWithMap(inputId, data, new Callable<Collection<Key>>() {
       @Override
       public Collection<Key> call() throws Exception {
@@ -277,4 +333,52 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
     }
   }
 
+  /**
+   * Applies only the difference between the previous and the new data of the input: values of the keys which are absent in the new data
+   * or mapped to a different value are removed, values of new and changed keys are added, unchanged keys are not touched.
+   */
+  protected void updateWithDiff(final int inputId, @NotNull Map<Key, Value> newData, @NotNull Callable<Map<Key, Value>> oldDataGetter)
+    throws StorageException {
+    getWriteLock().lock();
+    try {
+      final Map<Key, Value> oldData;
+      try {
+        oldData = oldDataGetter.call();
+      }
+      catch (Exception e) {
+        throw new StorageException(e);
+      }
+
+      for (Map.Entry<Key, Value> entry : oldData.entrySet()) {
+        final Key key = entry.getKey();
+        if (!newData.containsKey(key) || !Comparing.equal(entry.getValue(), newData.get(key))) {
+          myStorage.removeAllValues(key, inputId);
+        }
+      }
+      for (Map.Entry<Key, Value> entry : newData.entrySet()) {
+        final Key key = entry.getKey();
+        if (!oldData.containsKey(key) || !Comparing.equal(entry.getValue(), oldData.get(key))) {
+          myStorage.addValue(key, inputId, entry.getValue());
+        }
+      }
+
+      if (myForwardIndex != null) {
+        try {
+          if (newData.size() > 0) {
+            myForwardIndex.put(inputId, newData);
+          }
+          else {
+            myForwardIndex.remove(inputId);
+          }
+        }
+        catch (IOException e) {
+          throw new StorageException(e);
+        }
+      }
+    }
+    finally {
+      getWriteLock().unlock();
+    }
+  }
+
 }
@@ -7,6 +7,7 @@ import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
@@ -15,13 +16,16 @@ import java.util.Iterator;
  */
 class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContainer<Value>> {
   @NotNull private final ValueContainerExternalizer<Value> myValueContainerExternalizer;
+  private final boolean myReadConcurrently;
 
   ValueContainerMap(@NotNull final File file,
                     @NotNull KeyDescriptor<Key> keyKeyDescriptor,
-                    @NotNull DataExternalizer<Value> valueExternalizer) throws IOException {
+                    @NotNull DataExternalizer<Value> valueExternalizer,
+                    boolean readConcurrently) throws IOException {
 
     super(file, keyKeyDescriptor, new ValueContainerExternalizer<Value>(valueExternalizer));
     myValueContainerExternalizer = (ValueContainerExternalizer<Value>)myValueExternalizer;
+    myReadConcurrently = readConcurrently;
   }
 
   @NotNull
@@ -29,6 +33,15 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
     return myEnumerator;
   }
 
+  boolean isReadConcurrently() {
+    return myReadConcurrently;
+  }
+
+  @Override
+  protected boolean allowsConcurrentReads() {
+    return myReadConcurrently;
+  }
+
   @Override
   protected void doPut(Key key, ValueContainer<Value> container) throws IOException {
     synchronized (myEnumerator) {
@@ -87,10 +100,13 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
 
         final ValueContainer.IntIterator ids = container.getInputIdsIterator(value);
         if (ids != null) {
-          DataInputOutputUtil.writeSINT(out, ids.size());
-          while (ids.hasNext()) {
-            final int id = ids.next();
-            DataInputOutputUtil.writeSINT(out, id);
+          final int idCount = ids.size();
+          DataInputOutputUtil.writeSINT(out, idCount);
+          if (idCount == 1) {
+            DataInputOutputUtil.writeSINT(out, ids.next());
+          }
+          else {
+            saveSortedIdsDeltas(out, ids, idCount);
           }
         }
         else {
@@ -99,6 +115,22 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
       }
     }
 
+    // input ids are positive and sorted, so the gaps between them usually fit into one or two bytes
+    private static void saveSortedIdsDeltas(@NotNull DataOutput out, @NotNull ValueContainer.IntIterator ids, int idCount)
+      throws IOException {
+      final int[] sortedIds = new int[idCount];
+      for (int i = 0; i < idCount; i++) {
+        sortedIds[i] = ids.next();
+      }
+      Arrays.sort(sortedIds);
+
+      int prev = 0;
+      for (int id : sortedIds) {
+        DataInputOutputUtil.writeINT(out, id - prev);
+        prev = id;
+      }
+    }
+
     @NotNull
     @Override
     public ValueContainerImpl<T> read(final DataInput in) throws IOException {
@@ -115,9 +147,15 @@ class ValueContainerMap<Key, Value> extends PersistentHashMap<Key, ValueContaine
           for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
             final T value = myExternalizer.read(in);
             final int idCount = DataInputOutputUtil.readSINT(in);
-            for (int i = 0; i < idCount; i++) {
-              final int id = DataInputOutputUtil.readSINT(in);
-              valueContainer.addValue(id, value);
+            if (idCount == 1) {
+              valueContainer.addValue(DataInputOutputUtil.readSINT(in), value);
+            }
+            else {
+              int id = 0;
+              for (int i = 0; i < idCount; i++) {
+                id += DataInputOutputUtil.readINT(in);
+                valueContainer.addValue(id, value);
+              }
             }
           }
         }
@@ -115,11 +115,15 @@ public class IdeaPluginDescriptorImpl implements IdeaPluginDescriptor {
 
   @NotNull
   public static String intern(@NotNull String s) {
-    return ourInterner.intern(s);
+    synchronized (ourInterner) {
+      return ourInterner.intern(s);
+    }
   }
 
   public static void internJDOMElement(@NotNull Element rootElement) {
-    JDOMUtil.internElement(rootElement, ourInterner);
+    synchronized (ourInterner) { // descriptors are loaded concurrently
+      JDOMUtil.internElement(rootElement, ourInterner);
+    }
   }
 
   public void readExternal(@NotNull Document document, @NotNull URL url) throws InvalidDataException, FileNotFoundException {
@@ -46,9 +46,11 @@ import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.wm.IdeFrame;
 import com.intellij.openapi.wm.ex.WindowManagerEx;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.ExceptionUtil;
 import com.intellij.util.Function;
 import com.intellij.util.PlatformUtils;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.graph.CachingSemiGraph;
 import com.intellij.util.graph.DFSTBuilder;
 import com.intellij.util.graph.Graph;
@@ -69,6 +71,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -82,6 +85,7 @@ public class PluginManager {
   @NonNls public static final String INSTALLED_TXT = "installed.txt";
   @NonNls private static final String SPECIAL_IDEA_PLUGIN = "IDEA CORE";
   private static String myPluginError = null;
+  private static final Object ourPluginErrorLock = new Object();
   private static List<String> myPlugins2Disable = null;
   private static LinkedHashSet<String> myPlugins2Enable = null;
   @NonNls public static final String CORE_PLUGIN_ID = "com.intellij";
@@ -101,6 +105,8 @@ public class PluginManager {
 
   public static long startupStart;
   public static final float PLUGINS_PROGRESS_MAX_VALUE = 0.3f;
+  private static final int DESCRIPTOR_LOADING_THREADS =
+    SystemProperties.getIntProperty("idea.plugin.descriptors.loading.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
 
   private static IdeaPluginDescriptorImpl[] ourPlugins;
   private static final PluginClassCache ourPluginClasses = new PluginClassCache();
@@ -325,11 +331,13 @@ public class PluginManager {
   private static void prepareLoadingPluginsErrorMessage(final String errorMessage) {
     if (errorMessage != null) {
       if (!Main.isHeadless() && !ApplicationManager.getApplication().isUnitTestMode()) {
-        if (myPluginError == null) {
-          myPluginError = errorMessage;
-        }
-        else {
-          myPluginError += "\n" + errorMessage;
+        synchronized (ourPluginErrorLock) { // descriptors are loaded concurrently
+          if (myPluginError == null) {
+            myPluginError = errorMessage;
+          }
+          else {
+            myPluginError += "\n" + errorMessage;
+          }
         }
       } else {
         getLogger().error(errorMessage);
@@ -877,8 +885,7 @@ public class PluginManager {
     final File[] files = pluginsHome.listFiles();
     if (files != null) {
       int i = result.size();
-      for (File file : files) {
-        final IdeaPluginDescriptorImpl descriptor = loadDescriptor(file, PLUGIN_XML);
+      for (IdeaPluginDescriptorImpl descriptor : loadDescriptors(files)) {
         if (descriptor == null) continue;
         if (progress != null) {
           progress.showProgress(descriptor.getName(), PLUGINS_PROGRESS_MAX_VALUE * ((float)++i / pluginsCount));
@@ -897,6 +904,52 @@ public class PluginManager {
     }
   }
 
+  /**
+   * Descriptors are independent, so they are parsed concurrently. Results are in the order of the files.
+   */
+  @NotNull
+  private static IdeaPluginDescriptorImpl[] loadDescriptors(@NotNull final File[] files) {
+    final IdeaPluginDescriptorImpl[] descriptors = new IdeaPluginDescriptorImpl[files.length];
+    final int threads = Math.min(DESCRIPTOR_LOADING_THREADS, files.length);
+    if (threads <= 1) {
+      for (int i = 0; i < files.length; i++) {
+        descriptors[i] = loadDescriptor(files[i], PLUGIN_XML);
+      }
+      return descriptors;
+    }
+
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(files.length);
+    for (int i = 0; i < files.length; i++) {
+      final int index = i;
+      tasks.add(new Callable<Object>() {
+        @Override
+        public Object call() {
+          descriptors[index] = loadDescriptor(files[index], PLUGIN_XML);
+          return null;
+        }
+      });
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+      @Override
+      public Thread newThread(@NotNull Runnable r) {
+        Thread thread = new Thread(r, "Plugin descriptors loader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      ConcurrencyUtil.invokeAll(tasks, executor);
+    }
+    catch (Throwable e) {
+      getLogger().error(e);
+    }
+    finally {
+      executor.shutdown();
+    }
+    return descriptors;
+  }
+
   @SuppressWarnings({"HardCodedStringLiteral"})
   @Nullable
   public static IdeaPluginDescriptorImpl loadDescriptor(final File file, @NonNls final String fileName) {
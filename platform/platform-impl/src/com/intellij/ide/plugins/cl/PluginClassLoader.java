@@ -38,6 +38,17 @@ import java.util.List;
  */
 @SuppressWarnings({"UseOfSystemOutOrSystemErr"})
 public class PluginClassLoader extends UrlClassLoader {
+  static {
+    Method registration = getRegisterAsParallelCapableMethod();
+    if (registration != null) {
+      try {
+        registration.invoke(null); // registers the caller, which is this class
+      }
+      catch (Exception ignored) {
+      }
+    }
+  }
+
   private final ClassLoader[] myParents;
   private final PluginId myPluginId;
   private final String myPluginVersion;
@@ -93,26 +104,28 @@ public class PluginClassLoader extends UrlClassLoader {
   }
 
   @Nullable
-  private synchronized Class loadClassInsideSelf(@NotNull String name) {
-    Class c = findLoadedClass(name);
-    if (c != null) {
-      return c;
-    }
+  private Class loadClassInsideSelf(@NotNull String name) {
+    synchronized (getClassLoadingLockIfPossible(name)) {
+      Class c = findLoadedClass(name);
+      if (c != null) {
+        return c;
+      }
 
-    try {
-      c = _findClass(name);
-    }
-    catch (IncompatibleClassChangeError e) {
-      throw new PluginException(e, myPluginId);
-    }
-    catch (UnsupportedClassVersionError e) {
-      throw new PluginException(e, myPluginId);
-    }
-    if (c != null) {
-      PluginManager.addPluginClass(c.getName(), myPluginId, true);
-    }
+      try {
+        c = _findClass(name);
+      }
+      catch (IncompatibleClassChangeError e) {
+        throw new PluginException(e, myPluginId);
+      }
+      catch (UnsupportedClassVersionError e) {
+        throw new PluginException(e, myPluginId);
+      }
+      if (c != null) {
+        PluginManager.addPluginClass(c.getName(), myPluginId, true);
+      }
 
-    return c;
+      return c;
+    }
   }
 
   public boolean hasLoadedClass(String name) {
@@ -69,7 +69,7 @@ class CacheUpdateRunner {
       final FileContentQueue queue = new FileContentQueue();
       Collection<VirtualFile> files = mySession.getFilesToUpdate();
       final double total = files.size();
-      queue.queue(files, indicator);
+      queue.queue(files, indicator, getContentLoadingThreadsCount());
 
       Consumer<VirtualFile> progressUpdater = new Consumer<VirtualFile>() {
         // need set here to handle queue.pushbacks after checkCancelled() in order
@@ -140,10 +140,7 @@ class CacheUpdateRunner {
 
     final Ref<Boolean> isFinished = new Ref<Boolean>(Boolean.FALSE);
     try {
-      int threadsCount = Registry.intValue("caches.indexerThreadsCount");
-      if (threadsCount <= 0) {
-        threadsCount = Math.min(PROC_COUNT, 4);
-      }
+      int threadsCount = getIndexerThreadsCount();
       if (threadsCount == 1) {
         Runnable process = new MyRunnable(innerIndicator, queue, isFinished, progressUpdater, processInReadAction, application);
         ProgressManager.getInstance().runProcess(process, innerIndicator);
@@ -167,6 +164,17 @@ class CacheUpdateRunner {
     return isFinished.get();
   }
 
+  private static int getIndexerThreadsCount() {
+    int threadsCount = Registry.intValue("caches.indexerThreadsCount");
+    return threadsCount > 0 ? threadsCount : Math.min(PROC_COUNT, 8);
+  }
+
+  private static int getContentLoadingThreadsCount() {
+    int threadsCount = Registry.intValue("caches.contentLoaderThreadsCount");
+    // loading is mostly IO and decompression, so it needs fewer threads than indexing itself
+    return threadsCount > 0 ? threadsCount : Math.max(1, getIndexerThreadsCount() / 2);
+  }
+
   private static boolean waitForAll(Ref[] finishedRefs, Future<?>[] futures) {
     try {
       for (Future<?> future : futures) {
@@ -29,9 +29,11 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 * @author peter
@@ -52,21 +54,28 @@ public class FileContentQueue {
   private volatile boolean myContentLoadingThreadTerminated = false;
 
   public void queue(final Collection<VirtualFile> files, @NotNull final ProgressIndicator indicator) {
+    queue(files, indicator, 1);
+  }
+
+  /**
+   * Loads contents of the files in several threads, the order in which contents are taken from the queue is not preserved then.
+   */
+  public void queue(final Collection<VirtualFile> files, @NotNull final ProgressIndicator indicator, int loadingThreadsCount) {
+    final Iterator<VirtualFile> filesIterator = files.iterator();
+    final AtomicInteger runningThreads = new AtomicInteger(loadingThreadsCount);
+
     final Runnable contentLoadingRunnable = new Runnable() {
       public void run() {
         try {
-          for (VirtualFile file : files) {
+          while (true) {
             indicator.checkCanceled();
+            VirtualFile file;
+            synchronized (filesIterator) {
+              if (!filesIterator.hasNext()) break;
+              file = filesIterator.next();
+            }
             addLast(file, indicator);
           }
-
-          // put end-of-queue marker only if not canceled
-          try {
-            myQueue.put(new FileContent(null));
-          }
-          catch (InterruptedException e) {
-            LOG.error(e);
-          }
         }
         catch (ProcessCanceledException e) {
           // Do nothing, exit the thread.
@@ -75,12 +84,25 @@ public class FileContentQueue {
           LOG.error(e);
         }
         finally {
-          myContentLoadingThreadTerminated = true;
+          // the last thread to exit, even by an exception, puts end-of-queue marker unless canceled
+          if (runningThreads.decrementAndGet() == 0) {
+            if (!indicator.isCanceled()) {
+              try {
+                myQueue.put(new FileContent(null));
+              }
+              catch (InterruptedException e) {
+                LOG.error(e);
+              }
+            }
+            myContentLoadingThreadTerminated = true;
+          }
         }
       }
     };
 
-    ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    for (int i = 0; i < loadingThreadsCount; i++) {
+      ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    }
   }
 
   private void addLast(VirtualFile file, @NotNull final ProgressIndicator indicator) throws InterruptedException {
@@ -112,7 +112,19 @@ public class JarHandler extends JarHandlerBase {
     }
 
     try {
-      FileUtil.copy(original, mirror);
+      // the old mirror may still be mapped (see JarHandlerBase#getMappedZip), so it is replaced with a new file rather than
+      // rewritten in place, then the mapping keeps reading the old consistent copy until it's dropped
+      final File copy = FileUtil.createTempFile(mirror.getParentFile(), mirror.getName(), ".tmp", false);
+      try {
+        FileUtil.copy(original, copy);
+        if (!copy.renameTo(mirror)) {
+          FileUtil.copy(original, mirror);
+        }
+      }
+      finally {
+        FileUtil.delete(copy);
+      }
+      mirrorReplaced();
     }
     catch (final IOException e) {
       LOG.warn(e);
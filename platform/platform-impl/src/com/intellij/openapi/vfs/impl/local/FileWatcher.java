@@ -27,7 +27,6 @@ import com.intellij.openapi.util.*;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.openapi.vfs.newvfs.ManagingFS;
 import com.intellij.util.SmartList;
 import com.intellij.util.TimeoutUtil;
 import org.jetbrains.annotations.NonNls;
@@ -75,7 +74,6 @@ public class FileWatcher {
 
   private static final int MAX_PROCESS_LAUNCH_ATTEMPT_COUNT = 10;
 
-  private final ManagingFS myManagingFS;
   private final File myExecutable;
   private volatile MyProcessHandler myProcessHandler;
   private volatile int myStartAttemptCount = 0;
@@ -96,9 +94,7 @@ public class FileWatcher {
     return ((LocalFileSystemImpl)LocalFileSystem.getInstance()).getFileWatcher();
   }
 
-  FileWatcher(@NotNull ManagingFS managingFS) {
-    myManagingFS = managingFS;
-
+  FileWatcher() {
     boolean disabled = Boolean.parseBoolean(System.getProperty(PROPERTY_WATCHER_DISABLED));
     myExecutable = getExecutable();
 
@@ -427,6 +423,10 @@ public class FileWatcher {
 
       try {
         startupProcess(true);
+        if (myProcessHandler != null) {
+          // changes made while the watcher was down are lost
+          reset();
+        }
       }
       catch (IOException e) {
         shutdownProcess();
@@ -517,11 +517,13 @@ public class FileWatcher {
     }
 
     private void reset() {
-      VirtualFile[] localRoots = myManagingFS.getLocalRoots();
+      // which changes were missed is unknown, but only the watched roots might be affected by them;
+      // unwatchable roots are refreshed on every refresh anyway
+      List<String> recursiveWatchRoots = myRecursiveWatchRoots;
+      List<String> flatWatchRoots = myFlatWatchRoots;
       synchronized (myLock) {
-        for (VirtualFile root : localRoots) {
-          myDirtyPaths.dirtyPathsRecursive.add(root.getPresentableUrl());
-        }
+        myDirtyPaths.dirtyPathsRecursive.addAll(recursiveWatchRoots);
+        myDirtyPaths.dirtyDirectories.addAll(flatWatchRoots);
       }
       notifyOnEvent();
     }
@@ -112,7 +112,7 @@ public final class LocalFileSystemImpl extends LocalFileSystemBase implements Ap
 
   public LocalFileSystemImpl(@NotNull ManagingFS managingFS) {
     myManagingFS = managingFS;
-    myWatcher = new FileWatcher(myManagingFS);
+    myWatcher = new FileWatcher();
     if (myWatcher.isOperational()) {
       new StoreRefreshStatusThread().start();
     }
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.util.io.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Index of content records by SHA-1 of the (uncompressed) content, used by {@link FSRecords} to share one content record
+ * between all files with identical content. Keeps hash -> record mapping for lookups and record -> hash table to drop
+ * stale mappings when a record is deleted or rewritten in place.
+ * <p/>
+ * Should be accessed under FSRecords write lock.
+ */
+class ContentHashesStorage {
+  private static final int HASH_SIZE = 20;
+  private static final byte[] NO_HASH = new byte[HASH_SIZE];
+  private static final int HASHES_PER_PAGE = 64 * 1024; // pages hold whole hashes, so a hash is read from a single page
+  private static final ThreadLocal<MessageDigest> ourDigest = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-1");
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
+  private final PersistentHashMap<byte[], Integer> myRecordsByHash;
+  private final ResizeableMappedFile myHashesByRecord;
+
+  ContentHashesStorage(@NotNull File file, @Nullable PagedFileStorage.StorageLockContext lockContext) throws IOException {
+    myRecordsByHash = new PersistentHashMap<byte[], Integer>(file, new HashDescriptor(), EnumeratorIntegerDescriptor.INSTANCE);
+    try {
+      myHashesByRecord =
+        new ResizeableMappedFile(getRecordHashesFile(file), 1024 * HASH_SIZE, lockContext, HASHES_PER_PAGE * HASH_SIZE, false);
+    }
+    catch (IOException e) {
+      myRecordsByHash.close();
+      throw e;
+    }
+  }
+
+  @NotNull
+  static byte[] calculateHash(@NotNull ByteSequence bytes) {
+    MessageDigest digest = ourDigest.get();
+    digest.update(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
+    return digest.digest(); // resets the digest for the next call
+  }
+
+  /**
+   * @return content record with given hash or 0 if there is none
+   */
+  int findRecord(@NotNull byte[] hash) throws IOException {
+    Integer record = myRecordsByHash.get(hash);
+    return record != null ? record : 0;
+  }
+
+  /**
+   * Makes the record available for sharing, should be called after the content is passed to the storage.
+   */
+  void recordStored(int record, @NotNull byte[] hash) throws IOException {
+    myRecordsByHash.put(hash, record);
+  }
+
+  /**
+   * Reserves the record for content with given hash, so that {@link #recordStored} can check the record was not reused meanwhile.
+   */
+  void recordReserved(int record, @NotNull byte[] hash) {
+    putRecordHash(record, hash);
+  }
+
+  boolean isReservedFor(int record, @NotNull byte[] hash) {
+    byte[] recordHash = getRecordHash(record);
+    return recordHash != null && Arrays.equals(recordHash, hash);
+  }
+
+  /**
+   * Called when the content record is deleted or about to be rewritten with a different content.
+   */
+  void recordReleased(int record) throws IOException {
+    byte[] hash = getRecordHash(record);
+    if (hash == null) return;
+
+    Integer mapped = myRecordsByHash.get(hash);
+    if (mapped != null && mapped == record) {
+      myRecordsByHash.remove(hash);
+    }
+    putRecordHash(record, NO_HASH);
+  }
+
+  private void putRecordHash(int record, @NotNull byte[] hash) {
+    long offset = (long)record * HASH_SIZE;
+    if (offset + HASH_SIZE > Integer.MAX_VALUE) return; // the table is int addressed, such records are just not shared
+    myHashesByRecord.put((int)offset, hash, 0, HASH_SIZE);
+  }
+
+  @Nullable
+  private byte[] getRecordHash(int record) {
+    long offset = (long)record * HASH_SIZE;
+    if (offset + HASH_SIZE > myHashesByRecord.length()) return null;
+    byte[] hash = new byte[HASH_SIZE];
+    // FSRecords storages have their own lock context, so accesses to storages of other contexts may evict the page from the shared
+    // page cache while it is read, the lease keeps its buffer from being reused for another page meanwhile
+    PagedFileStorage.PageLease lease = myHashesByRecord.leasePage((int)offset);
+    try {
+      ByteBuffer page = lease.getBuffer();
+      int offsetInPage = myHashesByRecord.getPagedFileStorage().getOffsetInPage((int)offset);
+      for (int i = 0; i < HASH_SIZE; i++) {
+        hash[i] = page.get(offsetInPage + i);
+      }
+    }
+    finally {
+      lease.release();
+    }
+    return Arrays.equals(hash, NO_HASH) ? null : hash;
+  }
+
+  boolean isDirty() {
+    return myRecordsByHash.isDirty() || myHashesByRecord.isDirty();
+  }
+
+  void force() {
+    myRecordsByHash.force();
+    myHashesByRecord.force();
+  }
+
+  void close() throws IOException {
+    try {
+      myRecordsByHash.close();
+    }
+    finally {
+      myHashesByRecord.close();
+    }
+  }
+
+  static boolean deleteFiles(@NotNull File file) {
+    return IOUtil.deleteAllFilesStartingWith(file); // includes record hashes file
+  }
+
+  @NotNull
+  private static File getRecordHashesFile(@NotNull File file) {
+    return new File(file.getPath() + ".records");
+  }
+
+  private static class HashDescriptor implements KeyDescriptor<byte[]> {
+    @Override
+    public int getHashCode(byte[] value) {
+      return (value[0] & 0xFF) << 24 | (value[1] & 0xFF) << 16 | (value[2] & 0xFF) << 8 | value[3] & 0xFF;
+    }
+
+    @Override
+    public boolean isEqual(byte[] val1, byte[] val2) {
+      return Arrays.equals(val1, val2);
+    }
+
+    @Override
+    public void save(DataOutput out, byte[] value) throws IOException {
+      out.write(value);
+    }
+
+    @Override
+    public byte[] read(DataInput in) throws IOException {
+      byte[] value = new byte[HASH_SIZE];
+      in.readFully(value);
+      return value;
+    }
+  }
+}
@@ -29,6 +29,7 @@ import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.ByteSequence;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.ConcurrentHashMap;
 import com.intellij.util.containers.IntArrayList;
 import com.intellij.util.io.*;
@@ -50,7 +51,8 @@ import static com.intellij.util.io.IOUtil.deleteAllFilesStartingWith;
 public class FSRecords implements Forceable {
   private static final Logger LOG = Logger.getInstance("#com.intellij.vfs.persistent.FSRecords");
 
-  private static final int VERSION = 19;
+  private static final boolean ourShareContents = SystemProperties.getBooleanProperty("idea.share.contents", true);
+  private static final int VERSION = 20 + (ourShareContents ? 0x80 : 0);
 
   private static final int PARENT_OFFSET = 0;
   private static final int PARENT_SIZE = 4;
@@ -111,6 +113,7 @@ public class FSRecords implements Forceable {
     private static PersistentStringEnumerator myNames;
     private static Storage myAttributes;
     private static RefCountingStorage myContents;
+    private static ContentHashesStorage myContentHashes;
     private static ResizeableMappedFile myRecords;
     private static final TIntArrayList myFreeRecords = new TIntArrayList();
 
@@ -194,6 +197,7 @@ public class FSRecords implements Forceable {
       final File namesFile = new File(basePath, "names.dat");
       final File attributesFile = new File(basePath, "attrib.dat");
       final File contentsFile = new File(basePath, "content.dat");
+      final File contentHashesFile = new File(basePath, "content.hashes");
       final File recordsFile = new File(basePath, "records.dat");
 
       if (!namesFile.exists()) {
@@ -210,6 +214,9 @@ public class FSRecords implements Forceable {
         myNames = new PersistentStringEnumerator(namesFile, storageLockContext);
         myAttributes = new Storage(attributesFile.getCanonicalPath(), REASONABLY_SMALL);
         myContents = new RefCountingStorage(contentsFile.getCanonicalPath(), CapacityAllocationPolicy.FIVE_PERCENT_FOR_GROWTH); // sources usually zipped with 4x ratio
+        if (ourShareContents) {
+          myContentHashes = new ContentHashesStorage(contentHashesFile, storageLockContext);
+        }
         boolean aligned = PagedFileStorage.BUFFER_SIZE % RECORD_SIZE == 0;
         assert aligned; // for performance
         myRecords = new ResizeableMappedFile(recordsFile, 20 * 1024, storageLockContext,
@@ -240,6 +247,7 @@ public class FSRecords implements Forceable {
           deleted &= deleteAllFilesStartingWith(namesFile);
           deleted &= AbstractStorage.deleteFiles(attributesFile.getCanonicalPath());
           deleted &= AbstractStorage.deleteFiles(contentsFile.getCanonicalPath());
+          deleted &= ContentHashesStorage.deleteFiles(contentHashesFile);
           deleted &= deleteAllFilesStartingWith(recordsFile);
 
           if (!deleted) {
@@ -337,6 +345,7 @@ public class FSRecords implements Forceable {
           myNames.force();
           myAttributes.force();
           myContents.force();
+          if (myContentHashes != null) myContentHashes.force();
           myRecords.force();
         }
       }
@@ -357,6 +366,7 @@ public class FSRecords implements Forceable {
 
         final boolean attribsFlushed = myAttributes.flushSome();
         final boolean contentsFlushed = myContents.flushSome();
+        if (myContentHashes != null) myContentHashes.force();
         if (attribsFlushed && contentsFlushed) {
           markClean();
           myRecords.force();
@@ -368,7 +378,8 @@ public class FSRecords implements Forceable {
     }
 
     public static boolean isDirty() {
-      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myRecords.isDirty();
+      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myRecords.isDirty() ||
+             myContentHashes != null && myContentHashes.isDirty();
     }
 
 
@@ -424,6 +435,11 @@ public class FSRecords implements Forceable {
         myContents = null;
       }
 
+      if (myContentHashes != null) {
+        myContentHashes.close();
+        myContentHashes = null;
+      }
+
       if (myRecords != null) {
         markClean();
         myRecords.close();
@@ -499,6 +515,11 @@ public class FSRecords implements Forceable {
     return DbConnection.myContents;
   }
 
+  @Nullable
+  private static ContentHashesStorage getContentHashes() {
+    return DbConnection.myContentHashes;
+  }
+
   private static Storage getAttributesStorage() {
     return DbConnection.myAttributes;
   }
@@ -576,7 +597,7 @@ public class FSRecords implements Forceable {
   private static void deleteContentAndAttributes(int id) throws IOException {
     int content_page = getContentRecordId(id);
     if (content_page != 0) {
-      getContentStorage().releaseRecord(content_page);
+      releaseContentRecord(content_page);
     }
 
     int att_page = getAttributeRecordId(id);
@@ -1243,11 +1264,50 @@ public class FSRecords implements Forceable {
 
   public static void releaseContent(int contentId) {
     try {
-      getContentStorage().releaseRecord(contentId);
+      w.lock();
+      releaseContentRecord(contentId);
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
     }
+    finally {
+      w.unlock();
+    }
+  }
+
+  // should be called under w lock
+  private static void releaseContentRecord(int contentId) throws IOException {
+    RefCountingStorage contentStorage = getContentStorage();
+    ContentHashesStorage contentHashes = getContentHashes();
+    if (contentHashes != null && contentStorage.getRefCount(contentId) == 1) {
+      contentHashes.recordReleased(contentId);
+    }
+    contentStorage.releaseRecord(contentId);
+  }
+
+  // should be called under w lock, returns record already containing the content or 0 if the content should be written to a new record
+  private static int acquireSharedContentRecord(@Nullable byte[] contentHash) throws IOException {
+    ContentHashesStorage contentHashes = getContentHashes();
+    if (contentHashes == null || contentHash == null) return 0;
+
+    int recordId = contentHashes.findRecord(contentHash);
+    if (recordId != 0) getContentStorage().acquireRecord(recordId);
+    return recordId;
+  }
+
+  // makes just written content record available for sharing unless it was released or reused meanwhile
+  private static void contentRecordWritten(int recordId, @Nullable byte[] contentHash) throws IOException {
+    if (contentHash == null) return;
+    try {
+      w.lock();
+      ContentHashesStorage contentHashes = getContentHashes();
+      if (contentHashes != null && contentHashes.isReservedFor(recordId, contentHash)) {
+        contentHashes.recordStored(recordId, contentHash);
+      }
+    }
+    finally {
+      w.unlock();
+    }
   }
 
   public static int getContentId(int fileId) {
@@ -1276,10 +1336,25 @@ public class FSRecords implements Forceable {
 
   public static int storeUnlinkedContent(byte[] bytes) {
     try {
-      int recordId = getContentStorage().acquireNewRecord();
+      byte[] contentHash = ourShareContents ? ContentHashesStorage.calculateHash(new ByteSequence(bytes)) : null;
+      int recordId;
+      try {
+        w.lock();
+        int sharedRecordId = acquireSharedContentRecord(contentHash);
+        if (sharedRecordId != 0) return sharedRecordId;
+
+        recordId = getContentStorage().acquireNewRecord();
+        ContentHashesStorage contentHashes = getContentHashes();
+        if (contentHashes != null && contentHash != null) contentHashes.recordReserved(recordId, contentHash);
+      }
+      finally {
+        w.unlock();
+      }
+
       AbstractStorage.StorageDataOutput output = getContentStorage().writeStream(recordId, true);
       output.write(bytes);
       output.close();
+      contentRecordWritten(recordId, contentHash);
       return recordId;
     }
     catch (IOException e) {
@@ -1318,6 +1393,7 @@ public class FSRecords implements Forceable {
     public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
       final int page;
       RefCountingStorage contentStorage = getContentStorage();
+      byte[] contentHash = ourShareContents ? ContentHashesStorage.calculateHash(bytes) : null;
       try {
         w.lock();
         incModCount(fileId);
@@ -1325,11 +1401,24 @@ public class FSRecords implements Forceable {
         checkFileIsValid(myFileId);
 
         int recordId = getContentRecordId(myFileId);
+        int sharedRecordId = acquireSharedContentRecord(contentHash);
+        if (sharedRecordId != 0) {
+          if (recordId != 0) releaseContentRecord(recordId);
+          setContentRecordId(myFileId, sharedRecordId);
+          return;
+        }
+
         if (recordId == 0 || contentStorage.getRefCount(recordId) > 1) {
+          if (recordId != 0) releaseContentRecord(recordId);
           recordId = contentStorage.acquireNewRecord();
           setContentRecordId(myFileId, recordId);
         }
 
+        ContentHashesStorage contentHashes = getContentHashes();
+        if (contentHashes != null && contentHash != null) {
+          contentHashes.recordReleased(recordId); // the record might have been shared with its previous content
+          contentHashes.recordReserved(recordId, contentHash);
+        }
         page = recordId;
       }
       finally {
@@ -1337,6 +1426,7 @@ public class FSRecords implements Forceable {
       }
 
       contentStorage.writeBytes(page, bytes, myFixedSize);
+      contentRecordWritten(page, contentHash);
     }
   }
 
@@ -20,6 +20,7 @@ import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileAttributes;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
@@ -27,6 +28,8 @@ import com.intellij.openapi.vfs.newvfs.NewVirtualFileSystem;
 import com.intellij.openapi.vfs.newvfs.events.*;
 import com.intellij.openapi.vfs.newvfs.impl.FakeVirtualFile;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualDirectoryImpl;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.Queue;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -35,6 +38,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.*;
 
 import static com.intellij.openapi.diagnostic.LogUtil.debug;
 import static com.intellij.util.containers.ContainerUtil.newHashSet;
@@ -45,6 +49,11 @@ import static com.intellij.util.containers.ContainerUtil.newHashSet;
 public class RefreshWorker {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.newvfs.persistent.RefreshWorker");
 
+  private static final int STAT_THREADS =
+    SystemProperties.getIntProperty("idea.vfs.refresh.stat.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private static final int PARALLEL_STAT_THRESHOLD = 32;
+  private static ExecutorService ourStatExecutor;
+
   private final boolean myIsRecursive;
   private final Queue<Pair<NewVirtualFile, FileAttributes>> myRefreshQueue = new Queue<Pair<NewVirtualFile, FileAttributes>>(100);
   private final List<VFileEvent> myEvents = new ArrayList<VFileEvent>();
@@ -121,55 +130,66 @@ public class RefreshWorker {
             scheduleDeletion(file.findChild(name));
           }
 
+          List<VirtualFile> toStat = new ArrayList<VirtualFile>();
           for (String name : newNames) {
-            if (myCancelled) break main;
-            FileAttributes childAttributes = fs.getAttributes(new FakeVirtualFile(file, name));
-            if (childAttributes != null) {
-              scheduleCreation(file, name, childAttributes.isDirectory());
-            }
-            else {
-              LOG.warn("fs=" + fs + " dir=" + file + " name=" + name);
+            toStat.add(new FakeVirtualFile(file, name));
+          }
+          for (VirtualFile child : file.getChildren()) {
+            if (!deletedNames.contains(child.getName())) {
+              toStat.add(child);
             }
           }
+          FileAttributes[] childrenAttributes = getAttributes(fs, toStat);
 
-          for (VirtualFile child : file.getChildren()) {
+          for (int i = 0; i < toStat.size(); i++) {
             if (myCancelled) break main;
-            if (!deletedNames.contains(child.getName())) {
-              FileAttributes childAttributes = fs.getAttributes(child);
+            VirtualFile child = toStat.get(i);
+            FileAttributes childAttributes = childrenAttributes[i];
+            if (child instanceof FakeVirtualFile) {
               if (childAttributes != null) {
-                checkAndScheduleChildRefresh(file, child, childAttributes);
+                scheduleCreation(file, child.getName(), childAttributes.isDirectory());
               }
               else {
                 LOG.warn("fs=" + fs + " dir=" + file + " name=" + child.getName());
-                scheduleDeletion(child);
               }
             }
-          }
-        }
-        else {
-          Collection<VirtualFile> cachedChildren = file.getCachedChildren();
-          debug(LOG, "cached=%s", cachedChildren);
-          for (VirtualFile child : cachedChildren) {
-            if (myCancelled) break main;
-            FileAttributes childAttributes = fs.getAttributes(child);
-            if (childAttributes != null) {
+            else if (childAttributes != null) {
               checkAndScheduleChildRefresh(file, child, childAttributes);
             }
             else {
+              LOG.warn("fs=" + fs + " dir=" + file + " name=" + child.getName());
               scheduleDeletion(child);
             }
           }
-
+        }
+        else {
+          Collection<VirtualFile> cachedChildren = file.getCachedChildren();
+          debug(LOG, "cached=%s", cachedChildren);
           List<String> names = dir.getSuspiciousNames();
           debug(LOG, "suspicious=%s", names);
+
+          List<VirtualFile> toStat = new ArrayList<VirtualFile>(cachedChildren);
           for (String name : names) {
-            if (myCancelled) break main;
-            if (name.isEmpty()) continue;
+            if (!name.isEmpty()) {
+              toStat.add(new FakeVirtualFile(file, name));
+            }
+          }
+          FileAttributes[] childrenAttributes = getAttributes(fs, toStat);
 
-            VirtualFile fake = new FakeVirtualFile(file, name);
-            FileAttributes childAttributes = fs.getAttributes(fake);
-            if (childAttributes != null) {
-              scheduleCreation(file, name, childAttributes.isDirectory());
+          for (int i = 0; i < toStat.size(); i++) {
+            if (myCancelled) break main;
+            VirtualFile child = toStat.get(i);
+            FileAttributes childAttributes = childrenAttributes[i];
+            if (child instanceof FakeVirtualFile) {
+              if (childAttributes != null) {
+                scheduleCreation(file, child.getName(), childAttributes.isDirectory());
+              }
+            }
+            else if (childAttributes != null) {
+              checkAndScheduleChildRefresh(file, child, childAttributes);
+            }
+            else {
+              scheduleDeletion(child);
             }
           }
         }
@@ -198,6 +218,63 @@ public class RefreshWorker {
     }
   }
 
+  /**
+   * Stats the files, in parallel for large enough local directories: the calls are independent and mostly wait for the disk.
+   * @return attributes in the order of files, null for files which do not exist
+   */
+  @NotNull
+  private FileAttributes[] getAttributes(@NotNull final NewVirtualFileSystem fs, @NotNull final List<VirtualFile> files) {
+    final FileAttributes[] result = new FileAttributes[files.size()];
+    if (STAT_THREADS <= 1 || files.size() < PARALLEL_STAT_THRESHOLD || !(fs instanceof LocalFileSystem)) {
+      for (int i = 0; i < result.length && !myCancelled; i++) {
+        result[i] = fs.getAttributes(files.get(i));
+      }
+      return result;
+    }
+
+    int chunkSize = Math.max(PARALLEL_STAT_THRESHOLD / 2, result.length / (STAT_THREADS * 4) + 1);
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(result.length / chunkSize + 1);
+    for (int start = 0; start < result.length; start += chunkSize) {
+      final int from = start;
+      final int to = Math.min(start + chunkSize, result.length);
+      tasks.add(new Callable<Object>() {
+        @Override
+        public Object call() {
+          for (int i = from; i < to && !myCancelled; i++) {
+            result[i] = fs.getAttributes(files.get(i));
+          }
+          return null;
+        }
+      });
+    }
+    try {
+      // the calling thread runs the tasks not yet picked up by the pool
+      ConcurrencyUtil.invokeAll(tasks, getStatExecutor());
+    }
+    catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+    return result;
+  }
+
+  @NotNull
+  private static synchronized ExecutorService getStatExecutor() {
+    if (ourStatExecutor == null) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(STAT_THREADS, STAT_THREADS, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                                           new ThreadFactory() {
+                                                             @Override
+                                                             public Thread newThread(@NotNull Runnable r) {
+                                                               Thread thread = new Thread(r, "VFS refresh stat");
+                                                               thread.setDaemon(true);
+                                                               return thread;
+                                                             }
+                                                           });
+      executor.allowCoreThreadTimeOut(true);
+      ourStatExecutor = executor;
+    }
+    return ourStatExecutor;
+  }
+
   private void checkAndScheduleChildRefresh(@NotNull VirtualFile parent,
                                             @NotNull VirtualFile child,
                                             @NotNull FileAttributes childAttributes) {
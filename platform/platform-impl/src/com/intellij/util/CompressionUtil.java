@@ -52,13 +52,8 @@ public class CompressionUtil {
 
   public static int writeCompressed(DataOutput out, byte[] bytes, int length) throws IOException {
     if (length > COMPRESSION_THRESHOLD && ourCanUseSnappy) {
-      SoftReference<byte[]> reference = spareBufferLocal.get();
-      byte[] compressedOutputBuffer = reference != null ? reference.get():null;
       int maxCompressedSize = 32 + length + length / 6; // snappy.cc#MaxCompressedLength
-      if (compressedOutputBuffer == null || compressedOutputBuffer.length < maxCompressedSize) {
-        compressedOutputBuffer = new byte[maxCompressedSize];
-        spareBufferLocal.set(new SoftReference<byte[]>(compressedOutputBuffer));
-      }
+      byte[] compressedOutputBuffer = getSpareBuffer(maxCompressedSize);
       int compressedSize = Snappy.rawCompress(bytes, 0, length, compressedOutputBuffer, 0);
       DataInputOutputUtil.writeINT(out, -compressedSize);
       out.write(compressedOutputBuffer, 0, compressedSize);
@@ -70,15 +65,31 @@ public class CompressionUtil {
     }
   }
 
+  private static byte[] getSpareBuffer(int minSize) {
+    SoftReference<byte[]> reference = spareBufferLocal.get();
+    byte[] buffer = reference != null ? reference.get():null;
+    if (buffer == null || buffer.length < minSize) {
+      buffer = new byte[minSize];
+      spareBufferLocal.set(new SoftReference<byte[]>(buffer));
+    }
+    return buffer;
+  }
+
   public static byte[] readCompressed(DataInput in) throws IOException {
     int size = DataInputOutputUtil.readINT(in);
-    byte[] bytes = new byte[Math.abs(size)];
-    in.readFully(bytes);
     if (size >= 0) {
+      byte[] bytes = new byte[size];
+      in.readFully(bytes);
       return bytes;
     } else {
+      // compressed data is only needed until it is uncompressed, so it is read into the spare buffer
+      int compressedSize = -size;
+      byte[] compressed = getSpareBuffer(compressedSize);
+      in.readFully(compressed, 0, compressedSize);
       if (!ourCanUseSnappy) throw new IOException("Can not read compressed data");
-      return Snappy.uncompress(bytes);
+      byte[] bytes = new byte[Snappy.uncompressedLength(compressed, 0, compressedSize)];
+      Snappy.uncompress(compressed, 0, compressedSize, bytes, 0);
+      return bytes;
     }
   }
 
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import junit.framework.TestCase;
+
+import java.util.regex.Pattern;
+
+public class TrigramQueryTest extends TestCase {
+  public void testPlainText() {
+    assertMatches(TrigramQuery.forText("trigram"), "class TrigramIndex", "TRIGRAM");
+    assertDoesNotMatch(TrigramQuery.forText("trigram"), "trig ram");
+    assertTrue(TrigramQuery.forText("ab").isAll());
+  }
+
+  public void testLiteralRuns() {
+    assertRegExp("foo.*bar", "foo = bar", "a foo, then bar");
+    assertRegExp("hello\\s+world", "hello   world", "hello\tworld");
+    assertRegExp("get\\(\\)\\.size", "list.get().size()");
+    TrigramQuery query = TrigramQuery.forRegExp("foo.*bar");
+    assertDoesNotMatch(query, "foo only", "bar only");
+  }
+
+  public void testQuantifiers() {
+    assertRegExp("abcd?ef", "abcef", "abcdef");
+    assertRegExp("abc+def", "abcdef", "abcccdef");
+    assertRegExp("abc{2,3}def", "abccdef", "abcccdef");
+    assertRegExp("ab(cd)*efg", "abefg", "abcdcdefg");
+    assertRegExp("x(abc)+y", "xabcy", "xabcabcy");
+    assertDoesNotMatch(TrigramQuery.forRegExp("x(abc)+y"), "xy");
+  }
+
+  public void testAlternatives() {
+    assertRegExp("(alpha|gamma) delta", "alpha delta", "gamma delta");
+    assertRegExp("alpha|beta", "alpha", "beta");
+    assertDoesNotMatch(TrigramQuery.forRegExp("alpha|beta"), "gamma");
+    assertTrue(TrigramQuery.forRegExp("alpha|b").isAll());
+  }
+
+  public void testCharacterClasses() {
+    assertRegExp("foo[bar]baz", "foobbaz", "fooabaz");
+    assertRegExp("xyz[]c]uvw", "xyz]uvw", "xyzcuvw");
+    assertRegExp("xyz[^\\]x]uvw", "xyzauvw");
+    assertTrue(TrigramQuery.forRegExp("[abc]x").isAll());
+  }
+
+  public void testUnsupportedConstructsMatchEverything() {
+    assertTrue(TrigramQuery.forRegExp("(?i)foobar").isAll());
+    assertTrue(TrigramQuery.forRegExp("\\Qfoo.bar\\E").isAll());
+    assertTrue(TrigramQuery.forRegExp("(foo)bar\\1").isAll());
+    assertTrue(TrigramQuery.forRegExp("(?=foo)foobar").isAll());
+    assertTrue(TrigramQuery.forRegExp("foo(bar").isAll());
+    assertTrue(TrigramQuery.forRegExp("foobar)").isAll());
+    assertTrue(TrigramQuery.forRegExp("*foobar").isAll());
+  }
+
+  private static void assertRegExp(String regExp, String... matchingTexts) {
+    TrigramQuery query = TrigramQuery.forRegExp(regExp);
+    assertFalse(regExp, query.isAll());
+    Pattern pattern = Pattern.compile(regExp);
+    for (String text : matchingTexts) {
+      assertTrue(text, pattern.matcher(text).find());
+    }
+    assertMatches(query, matchingTexts);
+  }
+
+  private static void assertMatches(TrigramQuery query, String... texts) {
+    for (String text : texts) {
+      assertTrue(query + " should match " + text, query.matches(TrigramBuilder.buildTrigram(text)));
+    }
+  }
+
+  private static void assertDoesNotMatch(TrigramQuery query, String... texts) {
+    for (String text : texts) {
+      assertFalse(query + " should not match " + text, query.matches(TrigramBuilder.buildTrigram(text)));
+    }
+  }
+}
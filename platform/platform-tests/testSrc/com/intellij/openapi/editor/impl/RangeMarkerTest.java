@@ -23,6 +23,9 @@ import com.intellij.psi.impl.PsiToDocumentSynchronizer;
 import com.intellij.testFramework.LeakHunter;
 import com.intellij.testFramework.LightPlatformTestCase;
 import com.intellij.testFramework.Timings;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.Processor;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
@@ -30,6 +33,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author mike
@@ -923,6 +928,100 @@ public class RangeMarkerTest extends LightPlatformTestCase {
     }
   }
 
+  public void testConcurrentQueriesAgreeWithBruteForce_NoCommand() throws Exception {
+    final int N = 10000;
+    final DocumentEx document = (DocumentEx)EditorFactory.getInstance().createDocument(StringUtil.repeatSymbol(' ', N));
+    final Random gen = new Random();
+    // never changed while the readers run, so each query must return exactly these of them
+    final List<RangeMarker> stable = new ArrayList<RangeMarker>();
+    for (int i = 0; i < 1000; i++) {
+      int start = gen.nextInt(N);
+      stable.add(document.createRangeMarker(start, start + gen.nextInt(Math.min(100, N - start))));
+    }
+    final Set<RangeMarker> stableSet = new THashSet<RangeMarker>(stable);
+
+    final AtomicBoolean stop = new AtomicBoolean();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    Thread[] readers = new Thread[3];
+    for (int t = 0; t < readers.length; t++) {
+      readers[t] = new Thread("RangeMarkerTest reader " + t) {
+        @Override
+        public void run() {
+          Random random = new Random();
+          try {
+            while (!stop.get()) {
+              final int start = random.nextInt(N);
+              final int end = start + random.nextInt(200);
+              CommonProcessors.CollectProcessor<RangeMarker> processor = new CommonProcessors.CollectProcessor<RangeMarker>();
+              document.processRangeMarkersOverlappingWith(start, end, processor);
+
+              Set<RangeMarker> found = new THashSet<RangeMarker>();
+              for (RangeMarker marker : processor.getResults()) {
+                assertTrue("duplicate " + marker, found.add(marker));
+                if (stableSet.contains(marker)) {
+                  assertTrue(marker + " doesn't overlap " + start + "," + end, overlaps(marker, start, end));
+                }
+              }
+              for (RangeMarker marker : stable) {
+                if (overlaps(marker, start, end)) assertTrue(marker + " is not found in " + start + "," + end, found.contains(marker));
+              }
+            }
+          }
+          catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+      readers[t].start();
+    }
+
+    // rebalance the tree under the readers
+    List<RangeMarker> churn = new ArrayList<RangeMarker>();
+    try {
+      for (int i = 0; i < 20000 && error.get() == null; i++) {
+        if (churn.isEmpty() || gen.nextBoolean()) {
+          int start = gen.nextInt(N);
+          churn.add(document.createRangeMarker(start, start + gen.nextInt(Math.min(100, N - start))));
+        }
+        else {
+          churn.remove(gen.nextInt(churn.size())).dispose();
+        }
+      }
+    }
+    finally {
+      stop.set(true);
+      for (Thread reader : readers) {
+        reader.join();
+      }
+    }
+    if (error.get() != null) throw new RuntimeException(error.get());
+  }
+
+  private static boolean overlaps(RangeMarker marker, int start, int end) {
+    return Math.max(marker.getStartOffset(), start) <= Math.min(marker.getEndOffset(), end);
+  }
+
+  public void testQueryStopsWhenProcessorReturnsFalse() {
+    DocumentEx document = (DocumentEx)EditorFactory.getInstance().createDocument(StringUtil.repeatSymbol(' ', 100));
+    List<RangeMarker> markers = new ArrayList<RangeMarker>(); // markers are weakly referenced by the document
+    for (int i = 0; i < 100; i++) {
+      markers.add(document.createRangeMarker(i, 100));
+    }
+
+    for (final int toProcess : new int[]{1, 5, 50}) {
+      final int[] processed = {0};
+      boolean completed = document.processRangeMarkersOverlappingWith(0, 100, new Processor<RangeMarker>() {
+        @Override
+        public boolean process(RangeMarker marker) {
+          return ++processed[0] < toProcess;
+        }
+      });
+      assertFalse(completed);
+      assertEquals(toProcess, processed[0]);
+    }
+    assertEquals(100, markers.size());
+  }
+
   private static RangeMarkerEx createMarker(String s, final int start, final int end) {
     final Document document = EditorFactory.getInstance().createDocument(s);
     return (RangeMarkerEx)document.createRangeMarker(start, end);
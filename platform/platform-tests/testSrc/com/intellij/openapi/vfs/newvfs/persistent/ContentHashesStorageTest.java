@@ -0,0 +1,122 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.PagedFileStorage;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class ContentHashesStorageTest extends TestCase {
+  private File myFile;
+  private ContentHashesStorage myStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile = FileUtil.createTempFile("content", "hashes");
+    myStorage = new ContentHashesStorage(myFile, new PagedFileStorage.StorageLockContext(false));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myStorage.close();
+    ContentHashesStorage.deleteFiles(myFile);
+    super.tearDown();
+  }
+
+  public void testHashOfEqualContents() {
+    byte[] hash = hash("content");
+    assertEquals(20, hash.length);
+    assertTrue(Arrays.equals(hash, hash("content")));
+    assertTrue(Arrays.equals(hash, ContentHashesStorage.calculateHash(new ByteSequence("a content!".getBytes(), 2, 7))));
+    assertFalse(Arrays.equals(hash, hash("another content")));
+  }
+
+  public void testStoredRecordIsFoundByHash() throws IOException {
+    byte[] hash = hash("content");
+    assertEquals(0, myStorage.findRecord(hash));
+
+    myStorage.recordReserved(5, hash);
+    assertTrue(myStorage.isReservedFor(5, hash));
+    assertEquals(0, myStorage.findRecord(hash)); // not written yet
+
+    myStorage.recordStored(5, hash);
+    assertEquals(5, myStorage.findRecord(hash));
+  }
+
+  public void testReleasedRecordIsNotFound() throws IOException {
+    byte[] hash = hash("content");
+    myStorage.recordReserved(5, hash);
+    myStorage.recordStored(5, hash);
+
+    myStorage.recordReleased(5);
+    assertEquals(0, myStorage.findRecord(hash));
+    assertFalse(myStorage.isReservedFor(5, hash));
+  }
+
+  public void testRecordRewrittenWithAnotherContent() throws IOException {
+    byte[] oldHash = hash("old content");
+    byte[] newHash = hash("new content");
+    myStorage.recordReserved(3, oldHash);
+    myStorage.recordStored(3, oldHash);
+
+    myStorage.recordReleased(3);
+    myStorage.recordReserved(3, newHash);
+    myStorage.recordStored(3, newHash);
+
+    assertEquals(0, myStorage.findRecord(oldHash));
+    assertEquals(3, myStorage.findRecord(newHash));
+  }
+
+  public void testReleaseDoesNotDropMappingOfAnotherRecord() throws IOException {
+    byte[] hash = hash("content");
+    myStorage.recordReserved(3, hash);
+    myStorage.recordStored(3, hash);
+    myStorage.recordReserved(7, hash); // the same content written to another record before it was shared
+    myStorage.recordStored(7, hash);
+
+    myStorage.recordReleased(3);
+    assertEquals(7, myStorage.findRecord(hash));
+  }
+
+  public void testMappingsSurviveReopening() throws IOException {
+    byte[] hash = hash("content");
+    myStorage.recordReserved(42, hash);
+    myStorage.recordStored(42, hash);
+    myStorage.close();
+
+    myStorage = new ContentHashesStorage(myFile, new PagedFileStorage.StorageLockContext(false));
+    assertEquals(42, myStorage.findRecord(hash));
+    assertTrue(myStorage.isReservedFor(42, hash));
+  }
+
+  public void testRecordsOutOfTableRangeAreNotShared() throws IOException {
+    byte[] hash = hash("content");
+    int record = Integer.MAX_VALUE / 10;
+    myStorage.recordReserved(record, hash);
+    assertFalse(myStorage.isReservedFor(record, hash));
+    myStorage.recordReleased(record);
+  }
+
+  private static byte[] hash(String content) {
+    return ContentHashesStorage.calculateHash(new ByteSequence(content.getBytes()));
+  }
+}
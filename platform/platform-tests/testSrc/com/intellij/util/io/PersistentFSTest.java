@@ -15,6 +15,8 @@
  */
 package com.intellij.util.io;
 
+import com.intellij.openapi.application.Result;
+import com.intellij.openapi.application.WriteAction;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.IoTestUtil;
@@ -24,6 +26,7 @@ import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileWithId;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
+import com.intellij.openapi.vfs.newvfs.persistent.FSRecords;
 import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
 import com.intellij.testFramework.PlatformTestCase;
 
@@ -54,6 +57,44 @@ public class PersistentFSTest extends PlatformTestCase {
     assertNull(PersistentFS.getInstance().findFileById(id));
   }
 
+  public void testFilesWithEqualContentShareContentRecord() throws Exception {
+    File dir = createTempDirectory();
+    String content = "shared content " + System.nanoTime();
+    File ioFile1 = new File(dir, "1.txt");
+    File ioFile2 = new File(dir, "2.txt");
+    FileUtil.writeToFile(ioFile1, content);
+    FileUtil.writeToFile(ioFile2, content);
+
+    final VirtualFile file1 = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(ioFile1);
+    final VirtualFile file2 = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(ioFile2);
+    assertNotNull(file1);
+    assertNotNull(file2);
+    file1.contentsToByteArray();
+    file2.contentsToByteArray();
+
+    int id1 = ((VirtualFileWithId)file1).getId();
+    int id2 = ((VirtualFileWithId)file2).getId();
+    int contentId = FSRecords.getContentId(id1);
+    assertTrue(contentId != 0);
+    assertEquals(contentId, FSRecords.getContentId(id2));
+
+    setContent(file2, "another content " + System.nanoTime());
+    assertTrue(contentId != FSRecords.getContentId(id2));
+
+    // file2 released its reference to the shared record, so file1 is its only user and rewrites it in place
+    setContent(file1, "yet another content " + System.nanoTime());
+    assertEquals(contentId, FSRecords.getContentId(id1));
+  }
+
+  private static void setContent(final VirtualFile file, final String content) {
+    new WriteAction() {
+      @Override
+      protected void run(Result result) throws Throwable {
+        file.setBinaryContent(content.getBytes());
+      }
+    }.execute().throwException();
+  }
+
   public void testListChildrenOfTheRootOfTheRoot() {
     PersistentFS fs = PersistentFS.getInstance();
     NewVirtualFile fakeRoot = fs.findRoot("", LocalFileSystem.getInstance());
@@ -11,6 +11,9 @@ import junit.framework.TestCase;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.intellij.util.io.StringEnumeratorTest.createRandomString;
 
@@ -210,6 +213,108 @@ public class PersistentMapTest extends TestCase {
     }
   }
 
+  public void testIncrementalCompactWithConcurrentUpdates() throws Exception {
+    final int keysCount = 5000;
+    for (int i = 0; i < keysCount; ++i) {
+      myMap.put(String.valueOf(i), String.valueOf(i) + "_value");
+    }
+    for (int i = 0; i < keysCount; i += 2) { // create some garbage
+      myMap.put(String.valueOf(i), String.valueOf(i) + "_new_value");
+    }
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread compaction = new Thread("compaction") {
+      @Override
+      public void run() {
+        try {
+          assertTrue(myMap.compactIncrementally());
+        }
+        catch (Throwable e) {
+          failure.set(e);
+        }
+      }
+    };
+    compaction.start();
+
+    for (int i = 0; i < keysCount; i += 3) {
+      if (i % 2 == 0) myMap.remove(String.valueOf(i));
+      else myMap.put(String.valueOf(i), String.valueOf(i) + "_newest_value");
+    }
+    compaction.join();
+    if (failure.get() != null) throw new AssertionError(failure.get());
+
+    assertTrue(myMap.getLastCompactionReclaimedBytes() > 0);
+
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+
+    for (int i = 0; i < keysCount; ++i) {
+      final String expected;
+      if (i % 3 == 0) expected = i % 2 == 0 ? null : String.valueOf(i) + "_newest_value";
+      else expected = String.valueOf(i) + (i % 2 == 0 ? "_new_value" : "_value");
+      assertEquals(expected, myMap.get(String.valueOf(i)));
+    }
+  }
+
+  public void testCompactedInBackgroundAfterOpening() throws Exception {
+    final int keysCount = 10000;
+    final String value = StringUtil.repeat("0123456789", 30);
+    for (int i = 0; i < keysCount; ++i) {
+      myMap.put(String.valueOf(i), value);
+    }
+    for (int t = 0; t < 2; ++t) { // more than half of the data file is garbage
+      for (int i = 0; i < keysCount; ++i) {
+        myMap.put(String.valueOf(i), value + t);
+      }
+    }
+    myMap.close();
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertTrue(myMap.makesSenseToCompact());
+
+    assertEquals(value + 1, myMap.get("0")); // schedules compaction
+    final long deadline = System.currentTimeMillis() + 60000;
+    while (myMap.getLastCompactionReclaimedBytes() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(myMap.getLastCompactionReclaimedBytes() > 0);
+    assertFalse(myMap.makesSenseToCompact());
+
+    for (int i = 0; i < keysCount; ++i) {
+      assertEquals(value + 1, myMap.get(String.valueOf(i)));
+    }
+  }
+
+  public void testCompactDuringIncrementalCompact() throws Exception {
+    final int keysCount = 5000;
+    for (int i = 0; i < keysCount; ++i) {
+      myMap.put(String.valueOf(i), String.valueOf(i) + "_value");
+    }
+    for (int i = 0; i < keysCount; i += 2) {
+      myMap.put(String.valueOf(i), String.valueOf(i) + "_new_value");
+    }
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread compaction = new Thread("compaction") {
+      @Override
+      public void run() {
+        try {
+          myMap.compactIncrementally();
+        }
+        catch (Throwable e) {
+          failure.set(e);
+        }
+      }
+    };
+    compaction.start();
+    myMap.compact();
+    compaction.join();
+    if (failure.get() != null) throw new AssertionError(failure.get());
+
+    for (int i = 0; i < keysCount; ++i) {
+      assertEquals(String.valueOf(i) + (i % 2 == 0 ? "_new_value" : "_value"), myMap.get(String.valueOf(i)));
+    }
+  }
+
   public void testOpeningWithCompact2() throws IOException {
     File file = FileUtil.createTempFile("persistent", "map");
 
@@ -338,6 +443,141 @@ public class PersistentMapTest extends TestCase {
       .printf("Data file size = %d bytes\n", new File(myDataFile.getParentFile(), myDataFile.getName() + Storage.DATA_EXTENSION).length());
   }
 
+  private static PersistentHashMap<String, String> createConcurrentReadsMap(File file) throws IOException {
+    DataExternalizer<String> threadSafeExternalizer = new DataExternalizer<String>() {
+      @Override
+      public void save(DataOutput out, String value) throws IOException {
+        IOUtil.writeString(value, out);
+      }
+
+      @Override
+      public String read(DataInput in) throws IOException {
+        return IOUtil.readString(in);
+      }
+    };
+    return new PersistentHashMap<String, String>(file, new EnumeratorStringDescriptor(), threadSafeExternalizer) {
+      @Override
+      protected boolean allowsConcurrentReads() {
+        return true;
+      }
+    };
+  }
+
+  public void testConcurrentReads() throws Exception {
+    File file = FileUtil.createTempFile("persistent", "map");
+    final PersistentHashMap<String, String> map = createConcurrentReadsMap(file);
+    try {
+      final int keysCount = 2000;
+      for (int i = 0; i < keysCount; ++i) {
+        map.put(String.valueOf(i), String.valueOf(i) + "_value");
+      }
+
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      Thread[] readers = new Thread[8];
+      for (int t = 0; t < readers.length; ++t) {
+        readers[t] = new Thread("reader " + t) {
+          @Override
+          public void run() {
+            try {
+              for (int i = 0; i < 20 * keysCount; ++i) {
+                final String key = String.valueOf(i % keysCount);
+                final String value = map.get(key);
+                if (value != null) assertTrue(value, value.startsWith(key + "_"));
+              }
+            }
+            catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        };
+        readers[t].start();
+      }
+
+      for (int i = 0; i < keysCount; ++i) {
+        if (i % 3 == 0) map.remove(String.valueOf(i));
+        else map.put(String.valueOf(i), String.valueOf(i) + "_another_value");
+      }
+
+      for (Thread reader : readers) reader.join();
+      if (failure.get() != null) throw new AssertionError(failure.get());
+
+      for (int i = 0; i < keysCount; ++i) {
+        assertEquals(i % 3 == 0 ? null : String.valueOf(i) + "_another_value", map.get(String.valueOf(i)));
+      }
+    }
+    finally {
+      clearMap(file, map);
+    }
+  }
+
+  public void testConcurrentReadsThroughputGrowsWithThreads() throws Exception {
+    File file = FileUtil.createTempFile("persistent", "map");
+    final PersistentHashMap<String, String> map = createConcurrentReadsMap(file);
+    try {
+      final int keysCount = 10000;
+      final String value = StringUtil.repeat("0123456789", 50);
+      for (int i = 0; i < keysCount; ++i) {
+        map.put(String.valueOf(i), value);
+      }
+      map.force();
+
+      final int threads = 4;
+      readThroughput(map, 1, keysCount, value); // warm up
+      double single = 0;
+      double concurrent = 0;
+      for (int attempt = 0; attempt < 3; ++attempt) {
+        single = Math.max(single, readThroughput(map, 1, keysCount, value));
+        concurrent = Math.max(concurrent, readThroughput(map, threads, keysCount, value));
+      }
+
+      // readers aren't expected to scale linearly, but they must not be serialized: with one reader at a time
+      // the throughput wouldn't grow with threads on a multi-core machine
+      final int expectedSpeedup = Math.min(threads, Runtime.getRuntime().availableProcessors());
+      assertTrue("reads per ms: " + single + " by one thread, " + concurrent + " by " + threads + " threads",
+                 concurrent >= single * expectedSpeedup * 0.4);
+    }
+    finally {
+      clearMap(file, map);
+    }
+  }
+
+  /**
+   * @return reads per millisecond made by given number of threads together
+   */
+  private static double readThroughput(final PersistentHashMap<String, String> map, int threadsCount, final int keysCount,
+                                       final String value) throws Exception {
+    final int readsPerThread = 20000;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] readers = new Thread[threadsCount];
+    for (int t = 0; t < readers.length; ++t) {
+      final int seed = t;
+      readers[t] = new Thread("reader " + t) {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          try {
+            start.await();
+            for (int i = 0; i < readsPerThread; ++i) {
+              assertEquals(value, map.get(String.valueOf(random.nextInt(keysCount))));
+            }
+          }
+          catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      readers[t].start();
+    }
+
+    long started = System.nanoTime();
+    start.countDown();
+    for (Thread reader : readers) reader.join();
+    long elapsed = System.nanoTime() - started;
+    if (failure.get() != null) throw new AssertionError(failure.get());
+    return (double)readsPerThread * threadsCount / Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsed));
+  }
+
   private static final boolean DO_SLOW_TEST = false;
 
   public void test2GLimit() throws IOException {
@@ -402,7 +642,7 @@ public class PersistentMapTest extends TestCase {
       long started = System.currentTimeMillis();
 
       map = new PersistentHashMap<String, Integer>(file, stringDescriptor, integerDescriptor);
-      if (isSmall) map.compact();
+      map.compact(); // compaction on opening is done in background
       assertTrue(!map.makesSenseToCompact());
       System.out.println(System.currentTimeMillis() - started);
       for (int i = 0; i < stringsCount; ++i) {
@@ -21,6 +21,8 @@ package com.intellij.openapi.util.text;
 
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntProcedure;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.util.Collection;
@@ -33,8 +35,23 @@ public class TrigramBuilder {
   }
 
   public static TIntHashSet buildTrigram(CharSequence text) {
-    TIntHashSet caseInsensitive = new TIntHashSet();
+    final TIntHashSet caseInsensitive = new TIntHashSet();
+    processTrigrams(text, new TIntProcedure() {
+      @Override
+      public boolean execute(int value) {
+        caseInsensitive.add(value);
+        return true;
+      }
+    });
+    return caseInsensitive;
+  }
 
+  /**
+   * Reports case insensitive trigrams of the text to the consumer as they occur, without collecting them.
+   * The same trigram is reported as many times as it occurs in the text.
+   * @return false if the consumer stopped the processing
+   */
+  public static boolean processTrigrams(@NotNull CharSequence text, @NotNull TIntProcedure consumer) {
     int tc1 = 0;
     int tc2 = 0;
     int tc3;
@@ -47,13 +64,13 @@ public class TrigramBuilder {
       tc1 = c;
 
       if (i >= 2) {
-        if (!blackList.contains(tc3)) {
-          caseInsensitive.add(tc3);
+        if (!blackList.contains(tc3) && !consumer.execute(tc3)) {
+          return false;
         }
       }
     }
 
-    return caseInsensitive;
+    return true;
   }
 
   private static final TIntHashSet blackList = new TIntHashSet(
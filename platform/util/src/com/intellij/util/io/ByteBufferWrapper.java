@@ -26,6 +26,8 @@ public abstract class ByteBufferWrapper {
   protected final long myPosition;
   protected final long myLength;
   protected volatile boolean myDirty;
+  private int myLeasesCount;
+  private boolean myDisposed;
 
   protected ByteBufferWrapper(final File file, final long offset, final long length) {
     myFile = file;
@@ -54,6 +56,38 @@ public abstract class ByteBufferWrapper {
     unmap();
   }
 
+  /**
+   * Pins the buffer, so it is not disposed until {@link #releaseLease()}.
+   * @return false if the buffer has already been disposed
+   */
+  synchronized boolean lease() {
+    if (myDisposed) return false;
+    ++myLeasesCount;
+    return true;
+  }
+
+  synchronized boolean isLeased() {
+    return myLeasesCount > 0;
+  }
+
+  synchronized void releaseLease() {
+    assert myLeasesCount > 0;
+    --myLeasesCount;
+  }
+
+  /**
+   * Disposes the buffer unless it is leased.
+   * @return true if the buffer was disposed
+   */
+  synchronized boolean tryDispose() {
+    if (myLeasesCount > 0) return false;
+    if (!myDisposed) {
+      myDisposed = true;
+      dispose();
+    }
+    return true;
+  }
+
   public static ByteBufferWrapper readWrite(final File file, final int offset, final int length) {
     return new ReadWriteDirectBufferWrapper(file, offset, length);
   }
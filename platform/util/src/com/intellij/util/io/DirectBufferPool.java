@@ -0,0 +1,95 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.util.SystemProperties;
+import gnu.trove.TIntObjectHashMap;
+import org.jetbrains.annotations.NotNull;
+import sun.nio.ch.DirectBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Size-limited pool of free direct buffers backing {@link ReadWriteDirectBufferWrapper} pages. Buffers of unmapped pages are kept for
+ * reuse instead of being freed and allocated again, while buffers that do not fit into the pool are freed explicitly. So off-heap memory
+ * used by paged storages is bounded by page cache limit plus the pool size and does not depend on when direct buffers get collected.
+ * Buffers in use are not owned by the pool, it only keeps the free ones.
+ * <p/>
+ * Enabled by "idea.paged.storage.buffer.pool" property, which specifies the pool size in megabytes.
+ */
+final class DirectBufferPool {
+  static final DirectBufferPool ourInstance =
+    new DirectBufferPool((long)SystemProperties.getIntProperty("idea.paged.storage.buffer.pool", 0) * PagedFileStorage.MB);
+
+  private final long myMaxPooledSize;
+  private final TIntObjectHashMap<List<ByteBuffer>> myPooledBuffers = new TIntObjectHashMap<List<ByteBuffer>>(); // capacity -> buffers
+  private long myPooledSize;
+  private int myAllocations;
+  private int myReuses;
+
+  DirectBufferPool(long maxPooledSize) {
+    myMaxPooledSize = maxPooledSize;
+  }
+
+  boolean isEnabled() {
+    return myMaxPooledSize > 0;
+  }
+
+  @NotNull
+  ByteBuffer allocate(int size) {
+    synchronized (myPooledBuffers) {
+      List<ByteBuffer> buffers = myPooledBuffers.get(size);
+      if (buffers != null && !buffers.isEmpty()) {
+        ByteBuffer buffer = buffers.remove(buffers.size() - 1);
+        myPooledSize -= size;
+        ++myReuses;
+        buffer.clear();
+        return buffer;
+      }
+      ++myAllocations;
+    }
+    return ByteBuffer.allocateDirect(size);
+  }
+
+  void release(@NotNull ByteBuffer buffer) {
+    int size = buffer.capacity();
+    synchronized (myPooledBuffers) {
+      if (myPooledSize + size <= myMaxPooledSize) {
+        List<ByteBuffer> buffers = myPooledBuffers.get(size);
+        if (buffers == null) myPooledBuffers.put(size, buffers = new ArrayList<ByteBuffer>());
+        buffers.add(buffer);
+        myPooledSize += size;
+        return;
+      }
+    }
+    DirectBufferWrapper.disposeDirectBuffer((DirectBuffer)buffer);
+  }
+
+  long getPooledSize() {
+    synchronized (myPooledBuffers) {
+      return myPooledSize;
+    }
+  }
+
+  @Override
+  public String toString() {
+    synchronized (myPooledBuffers) {
+      return "pooled: " + myPooledSize + " bytes, allocations: " + myAllocations + ", reuses: " + myReuses;
+    }
+  }
+}
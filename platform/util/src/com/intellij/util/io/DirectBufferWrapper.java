@@ -54,10 +54,14 @@ public abstract class DirectBufferWrapper extends ByteBufferWrapper {
   @Override
   public void unmap() {
     if (isDirty()) flush();
-    if (myBuffer != null) disposeDirectBuffer((DirectBuffer)myBuffer);
+    if (myBuffer != null) releaseBuffer(myBuffer);
     myBuffer = null;
   }
 
+  protected void releaseBuffer(ByteBuffer buffer) {
+    disposeDirectBuffer((DirectBuffer)buffer);
+  }
+
  static boolean disposeDirectBuffer(final DirectBuffer buffer) {
     return AccessController.doPrivileged(new PrivilegedAction<Object>() {
       @Nullable
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.Condition;
+import gnu.trove.TIntLongHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Keeps mapped pages of {@link PagedFileStorage}s and decides which of them is unmapped next when the cache exceeds its size limit.
+ * Implementations are called under the cache lock only, so they need no synchronization of their own.
+ *
+ * @see PagedFileStorage.StorageLock
+ */
+public interface PageCachePolicy {
+  /**
+   * Looks up the page and registers access to it.
+   */
+  @Nullable
+  ByteBufferWrapper get(int key);
+
+  void put(int key, @NotNull ByteBufferWrapper wrapper);
+
+  @Nullable
+  ByteBufferWrapper remove(int key);
+
+  /**
+   * Called when the cache is over its size limit, the page returned is removed right after.
+   * Pages which can't be evicted now are skipped and keep their place in the eviction order.
+   * @return key of the page to be evicted next or null if there are no pages that can be evicted
+   */
+  @Nullable
+  Integer selectVictim(@NotNull Condition<ByteBufferWrapper> canBeEvicted);
+
+  @NotNull
+  Map<Integer, ByteBufferWrapper> getPages();
+
+  /**
+   * Plain least recently used order, any access protects the page from eviction.
+   */
+  class Lru implements PageCachePolicy {
+    private final Map<Integer, ByteBufferWrapper> myPages = new LinkedHashMap<Integer, ByteBufferWrapper>(10, 0.75f, true);
+
+    @Override
+    public ByteBufferWrapper get(int key) {
+      return myPages.get(key);
+    }
+
+    @Override
+    public void put(int key, @NotNull ByteBufferWrapper wrapper) {
+      myPages.put(key, wrapper);
+    }
+
+    @Override
+    public ByteBufferWrapper remove(int key) {
+      return myPages.remove(key);
+    }
+
+    @Override
+    public Integer selectVictim(@NotNull Condition<ByteBufferWrapper> canBeEvicted) {
+      for (Map.Entry<Integer, ByteBufferWrapper> entry : myPages.entrySet()) {
+        if (canBeEvicted.value(entry.getValue())) return entry.getKey();
+      }
+      return null;
+    }
+
+    @NotNull
+    @Override
+    public Map<Integer, ByteBufferWrapper> getPages() {
+      return Collections.unmodifiableMap(myPages);
+    }
+  }
+
+  /**
+   * Segmented LRU: newly mapped pages start in probational queue and get into protected queue only when they are accessed again
+   * after {@link #CORRELATED_ACCESS_PERIOD} other accesses to pages of the same storage. Pages touched by a single scan (e.g. full
+   * reindex or processing of all keys) are accessed in one burst, so they are evicted from probational queue without pushing out
+   * frequently used pages. Accesses are counted per storage, so scans of several storages (or key and value files of one map)
+   * interleaving with each other don't make the bursts look longer.
+   */
+  class ScanResistant implements PageCachePolicy {
+    private static final int CORRELATED_ACCESS_PERIOD = 64;
+    private static final int PROTECTED_QUEUE_PERCENT = 75;
+
+    private final LinkedHashMap<Integer, Page> myProbationalQueue = new LinkedHashMap<Integer, Page>(10, 0.75f, true);
+    private final LinkedHashMap<Integer, Page> myProtectedQueue = new LinkedHashMap<Integer, Page>(10, 0.75f, true);
+    private final TIntLongHashMap myStorageAccessCounts = new TIntLongHashMap();
+
+    private static class Page {
+      private final ByteBufferWrapper myWrapper;
+      private long myLoadedAt; // access count of page's storage when the page got into probational queue
+
+      private Page(ByteBufferWrapper wrapper, long loadedAt) {
+        myWrapper = wrapper;
+        myLoadedAt = loadedAt;
+      }
+    }
+
+    private long registerAccess(int key) {
+      int storage = key & PagedFileStorage.StorageLock.FILE_INDEX_MASK;
+      long count = myStorageAccessCounts.get(storage) + 1;
+      myStorageAccessCounts.put(storage, count);
+      return count;
+    }
+
+    private long getAccessCount(int key) {
+      return myStorageAccessCounts.get(key & PagedFileStorage.StorageLock.FILE_INDEX_MASK);
+    }
+
+    @Override
+    public ByteBufferWrapper get(int key) {
+      long accessCount = registerAccess(key);
+      Page page = myProtectedQueue.get(key);
+      if (page != null) return page.myWrapper;
+
+      page = myProbationalQueue.get(key);
+      if (page == null) return null;
+
+      if (accessCount - page.myLoadedAt > CORRELATED_ACCESS_PERIOD) {
+        myProbationalQueue.remove(key);
+        myProtectedQueue.put(key, page);
+      }
+      return page.myWrapper;
+    }
+
+    private void demoteExcessProtectedPages() {
+      int maxProtected = (myProtectedQueue.size() + myProbationalQueue.size()) * PROTECTED_QUEUE_PERCENT / 100;
+      while (myProtectedQueue.size() > maxProtected) {
+        Iterator<Map.Entry<Integer, Page>> eldest = myProtectedQueue.entrySet().iterator();
+        Map.Entry<Integer, Page> entry = eldest.next();
+        eldest.remove();
+        entry.getValue().myLoadedAt = getAccessCount(entry.getKey());
+        myProbationalQueue.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    @Override
+    public void put(int key, @NotNull ByteBufferWrapper wrapper) {
+      Page page = new Page(wrapper, registerAccess(key));
+      if (myProtectedQueue.containsKey(key)) {
+        myProtectedQueue.put(key, page);
+      }
+      else {
+        myProbationalQueue.put(key, page);
+      }
+    }
+
+    @Override
+    public ByteBufferWrapper remove(int key) {
+      Page page = myProbationalQueue.remove(key);
+      if (page == null) page = myProtectedQueue.remove(key);
+      return page != null ? page.myWrapper : null;
+    }
+
+    @Override
+    public Integer selectVictim(@NotNull Condition<ByteBufferWrapper> canBeEvicted) {
+      demoteExcessProtectedPages();
+      // the newest probational page is likely the one just mapped, keep it if there is something else to evict
+      Integer victim = firstEvictable(myProbationalQueue, canBeEvicted, true);
+      if (victim == null) victim = firstEvictable(myProtectedQueue, canBeEvicted, false);
+      if (victim == null) victim = firstEvictable(myProbationalQueue, canBeEvicted, false);
+      return victim;
+    }
+
+    @Nullable
+    private static Integer firstEvictable(@NotNull LinkedHashMap<Integer, Page> queue,
+                                          @NotNull Condition<ByteBufferWrapper> canBeEvicted,
+                                          boolean skipNewest) {
+      for (Iterator<Map.Entry<Integer, Page>> iterator = queue.entrySet().iterator(); iterator.hasNext(); ) {
+        Map.Entry<Integer, Page> entry = iterator.next();
+        if (skipNewest && !iterator.hasNext()) return null;
+        if (canBeEvicted.value(entry.getValue().myWrapper)) return entry.getKey();
+      }
+      return null;
+    }
+
+    @NotNull
+    @Override
+    public Map<Integer, ByteBufferWrapper> getPages() {
+      Map<Integer, ByteBufferWrapper> pages = new HashMap<Integer, ByteBufferWrapper>(myProbationalQueue.size() + myProtectedQueue.size());
+      for (Map.Entry<Integer, Page> entry : myProbationalQueue.entrySet()) {
+        pages.put(entry.getKey(), entry.getValue().myWrapper);
+      }
+      for (Map.Entry<Integer, Page> entry : myProtectedQueue.entrySet()) {
+        pages.put(entry.getKey(), entry.getValue().myWrapper);
+      }
+      return pages;
+    }
+  }
+}
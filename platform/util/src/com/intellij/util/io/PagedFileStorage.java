@@ -17,9 +17,9 @@ package com.intellij.util.io;
 
 import com.intellij.openapi.Forceable;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.util.SystemProperties;
-import com.intellij.util.containers.hash.LinkedHashMap;
 import jsr166e.SequenceLock;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -34,6 +34,7 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author max
@@ -78,6 +79,9 @@ public class PagedFileStorage implements Forceable {
   private int myLastChangeCount2;
   private int myLastChangeCount3;
   private int myStorageIndex;
+  private volatile int myCacheHits;
+  private volatile int myCacheMisses;
+  private volatile int myCacheEvictions;
 
   private static final int MAX_PAGES_COUNT = 0xFFFF;
   private static final int MAX_LIVE_STORAGES_COUNT = 0xFFFF;
@@ -155,7 +159,7 @@ public class PagedFileStorage implements Forceable {
     }
   }
 
-  int getOffsetInPage(int addr) {
+  public int getOffsetInPage(int addr) {
     return addr % myPageSize;
   }
 
@@ -274,6 +278,10 @@ public class PagedFileStorage implements Forceable {
   }
 
   public void close() {
+    if (IOStatistics.DEBUG) {
+      IOStatistics.dump("Page cache of " + myFile + ": " + myCacheHits + " hits, " + myCacheMisses + " misses, " +
+                        myCacheEvictions + " evictions");
+    }
     try {
       force();
     }
@@ -434,13 +442,20 @@ public class PagedFileStorage implements Forceable {
   }
 
   public static class StorageLock {
-    private static final int FILE_INDEX_MASK = 0xFFFF0000;
+    static final int FILE_INDEX_MASK = 0xFFFF0000;
     private static final int FILE_INDEX_SHIFT = 16;
     public final StorageLockContext myDefaultStorageLockContext;
     private final ConcurrentHashMap<Integer, PagedFileStorage> myIndex2Storage = new ConcurrentHashMap<Integer, PagedFileStorage>();
 
-    private final LinkedHashMap<Integer, ByteBufferWrapper> mySegments;
-    private final SequenceLock mySegmentsAccessLock = new SequenceLock(); // protects map operations of mySegments, needed for LRU order, mySize and myMappingChangeCount
+    private static final Condition<ByteBufferWrapper> NOT_LEASED = new Condition<ByteBufferWrapper>() {
+      @Override
+      public boolean value(ByteBufferWrapper wrapper) {
+        return !wrapper.isLeased();
+      }
+    };
+
+    private final PageCachePolicy mySegments;
+    private final SequenceLock mySegmentsAccessLock = new SequenceLock(); // protects operations of mySegments, needed for eviction order, mySize and myMappingChangeCount
     // todo avoid locking for access
 
     private final SequenceLock mySegmentsAllocationLock = new SequenceLock();
@@ -454,28 +469,49 @@ public class PagedFileStorage implements Forceable {
     }
 
     public StorageLock(boolean checkThreadAccess) {
+      this(checkThreadAccess, createDefaultCachePolicy());
+    }
+
+    public StorageLock(boolean checkThreadAccess, @NotNull PageCachePolicy cachePolicy) {
+      this(checkThreadAccess, cachePolicy, UPPER_LIMIT);
+    }
+
+    // for tests
+    StorageLock(boolean checkThreadAccess, @NotNull PageCachePolicy cachePolicy, long sizeLimit) {
       myDefaultStorageLockContext = new StorageLockContext(this, checkThreadAccess);
 
-      mySizeLimit = UPPER_LIMIT;
-      mySegments = new LinkedHashMap<Integer, ByteBufferWrapper>(10, 0.75f) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Integer, ByteBufferWrapper> eldest) {
-          return mySize > mySizeLimit;
-        }
+      mySizeLimit = sizeLimit;
+      mySegments = cachePolicy;
+    }
 
-        @Nullable
-        @Override
-        public ByteBufferWrapper remove(Object key) {
-          // this method can be called after removeEldestEntry
-          ByteBufferWrapper wrapper = super.remove(key);
-          if (wrapper != null) {
-            ++myMappingChangeCount;
-            mySegmentsToRemove.offer(wrapper);
-            mySize -= wrapper.myLength;
-          }
-          return wrapper;
+    private static PageCachePolicy createDefaultCachePolicy() {
+      return "lru".equals(System.getProperty("idea.paged.storage.cache.policy"))
+             ? new PageCachePolicy.Lru()
+             : new PageCachePolicy.ScanResistant();
+    }
+
+    private void removeSegment(Integer key) {
+      assert mySegmentsAccessLock.isHeldByCurrentThread();
+      ByteBufferWrapper wrapper = mySegments.remove(key);
+      if (wrapper != null) {
+        if (wrapper.isLeased()) {
+          mySegments.put(key, wrapper); // otherwise the next access would map the page again while the leased buffer is alive
+          throw leasedPageRemoved(wrapper);
         }
-      };
+        segmentRemoved(wrapper);
+      }
+    }
+
+    @NotNull
+    private static IllegalStateException leasedPageRemoved(@NotNull ByteBufferWrapper wrapper) {
+      return new IllegalStateException("Page at " + wrapper.myPosition + " of " + wrapper.myFile + " is leased, " +
+                                       "the lease should be released before the storage is resized or closed");
+    }
+
+    private void segmentRemoved(ByteBufferWrapper wrapper) {
+      ++myMappingChangeCount;
+      mySegmentsToRemove.offer(wrapper);
+      mySize -= wrapper.myLength;
     }
 
     public void lock() {
@@ -503,11 +539,22 @@ public class PagedFileStorage implements Forceable {
     }
 
     private ByteBufferWrapper get(Integer key) {
+      return get(key, false);
+    }
+
+    /**
+     * @param lease whether to lease the buffer, it's done under the cache lock, so that the buffer can't be evicted before
+     */
+    private ByteBufferWrapper get(Integer key, boolean lease) {
       ByteBufferWrapper wrapper;
       try {         // fast path
         mySegmentsAccessLock.lock();
         wrapper = mySegments.get(key);
-        if (wrapper != null) return wrapper;
+        if (wrapper != null) {
+          if (lease) leaseCached(wrapper);
+          countHit(key);
+          return wrapper;
+        }
       }
       finally {
         mySegmentsAccessLock.unlock();
@@ -519,7 +566,11 @@ public class PagedFileStorage implements Forceable {
         mySegmentsAccessLock.lock();
         try {
           wrapper = mySegments.get(key);
-          if (wrapper != null) return wrapper;
+          if (wrapper != null) {
+            if (lease) leaseCached(wrapper);
+            countHit(key);
+            return wrapper;
+          }
         } finally {
           mySegmentsAccessLock.unlock();
         }
@@ -538,7 +589,10 @@ public class PagedFileStorage implements Forceable {
         mySegmentsAccessLock.lock();
         try {
           mySegments.put(key, wrapper);
+          if (lease) leaseCached(wrapper); // before ensureSize() below can evict the page
           mySize += wrapper.myLength;
+          PagedFileStorage owner = getRegisteredPagedFileStorageByIndex(key & FILE_INDEX_MASK);
+          if (owner != null) ++owner.myCacheMisses;
         }
         finally {
           mySegmentsAccessLock.unlock();
@@ -553,14 +607,27 @@ public class PagedFileStorage implements Forceable {
       }
     }
 
+    private void leaseCached(@NotNull ByteBufferWrapper wrapper) {
+      assert mySegmentsAccessLock.isHeldByCurrentThread();
+      // buffers are removed from the cache under this lock and disposed only after that, so a cached buffer is alive
+      boolean leased = wrapper.lease();
+      assert leased : wrapper.myFile;
+    }
+
+    private void countHit(Integer key) {
+      PagedFileStorage owner = getRegisteredPagedFileStorageByIndex(key & FILE_INDEX_MASK);
+      if (owner != null) ++owner.myCacheHits;
+    }
+
     private void disposeRemovedSegments() {
       if (mySegmentsToRemove.isEmpty()) return;
 
       assert mySegmentsAllocationLock.isHeldByCurrentThread();
       Iterator<ByteBufferWrapper> iterator = mySegmentsToRemove.iterator();
       while(iterator.hasNext()) {
-        iterator.next().dispose();
-        iterator.remove();
+        if (iterator.next().tryDispose()) { // leased buffers are disposed when their last lease is released
+          iterator.remove();
+        }
       }
     }
 
@@ -571,7 +638,14 @@ public class PagedFileStorage implements Forceable {
         mySegmentsAccessLock.lock();
         while (mySize > sizeLimit) {
           // we still have to drop something
-          mySegments.doRemoveEldestEntry();
+          Integer victim = mySegments.selectVictim(NOT_LEASED); // leased pages stay mapped, otherwise the page could get two buffers
+          if (victim == null) break;
+          ByteBufferWrapper wrapper = mySegments.remove(victim);
+          if (wrapper == null) break;
+
+          segmentRemoved(wrapper);
+          PagedFileStorage owner = getRegisteredPagedFileStorageByIndex(victim & FILE_INDEX_MASK);
+          if (owner != null) ++owner.myCacheEvictions;
         }
       } finally {
         mySegmentsAccessLock.unlock();
@@ -615,7 +689,7 @@ public class PagedFileStorage implements Forceable {
           long newSize = mySize - owner.myPageSize;
           if (newSize < 0) {
             LOG.info("Currently allocated:"+mySize);
-            LOG.info("Mapping failed due to OOME. Current buffers: " + mySegments);
+            LOG.info("Mapping failed due to OOME. Current buffers: " + mySegments.getPages());
             LOG.info(oome);
             try {
               Class<?> aClass = Class.forName("java.nio.Bits");
@@ -649,7 +723,7 @@ public class PagedFileStorage implements Forceable {
       try {
         checkThreadAccess(storageLockContext);
         Map<Integer, ByteBufferWrapper> mineBuffers = null;
-        for (Map.Entry<Integer, ByteBufferWrapper> entry : mySegments.entrySet()) {
+        for (Map.Entry<Integer, ByteBufferWrapper> entry : mySegments.getPages().entrySet()) {
           if ((entry.getKey() & FILE_INDEX_MASK) == index) {
             if (mineBuffers == null) {
               mineBuffers = new TreeMap<Integer, ByteBufferWrapper>(new Comparator<Integer>() {
@@ -675,8 +749,11 @@ public class PagedFileStorage implements Forceable {
       if (buffers != null) {
         mySegmentsAccessLock.lock();
         try {
+          for (ByteBufferWrapper wrapper : buffers.values()) {
+            if (wrapper.isLeased()) throw leasedPageRemoved(wrapper); // check before anything is unmapped
+          }
           for (Integer key : buffers.keySet()) {
-            mySegments.remove(key);
+            removeSegment(key);
           }
         }
         finally {
@@ -708,10 +785,28 @@ public class PagedFileStorage implements Forceable {
       }
     }
 
+    @NotNull
+    private ByteBufferWrapper lease(Integer key) {
+      return get(key, true);
+    }
+
+    private void releaseLease(ByteBufferWrapper wrapper) {
+      wrapper.releaseLease();
+      if (mySegmentsToRemove.isEmpty()) return;
+
+      mySegmentsAllocationLock.lock();
+      try {
+        disposeRemovedSegments();
+      }
+      finally {
+        mySegmentsAllocationLock.unlock();
+      }
+    }
+
     public void invalidateBuffer(int page) {
       mySegmentsAccessLock.lock();
       try {
-        mySegments.remove(page);
+        removeSegment(page);
       } finally {
         mySegmentsAccessLock.unlock();
       }
@@ -725,6 +820,57 @@ public class PagedFileStorage implements Forceable {
     }
   }
 
+  /**
+   * Leases the page containing given address: until {@link PageLease#release()} the page buffer is neither unmapped nor reused
+   * for another page, even when page cache evicts it, so the buffer can be accessed without holding locks of other storages.
+   * The lease should be released before the storage is resized or closed.
+   */
+  @NotNull
+  public PageLease leasePage(int address) {
+    if (myStorageIndex == -1) {
+      myStorageIndex = myStorageLockContext.myStorageLock.registerPagedFileStorage(this);
+    }
+    ByteBufferWrapper wrapper = myStorageLockContext.myStorageLock.lease(myStorageIndex | (address / myPageSize));
+    try {
+      return new PageLease(this, wrapper, wrapper.getBuffer());
+    }
+    catch (IOException e) {
+      myStorageLockContext.myStorageLock.releaseLease(wrapper);
+      throw new MappingFailedException("Cannot map buffer", e);
+    }
+  }
+
+  public static final class PageLease {
+    private final PagedFileStorage myOwner;
+    private final ByteBufferWrapper myWrapper;
+    private final ByteBuffer myBuffer;
+    private final AtomicBoolean myReleased = new AtomicBoolean();
+
+    private PageLease(PagedFileStorage owner, ByteBufferWrapper wrapper, ByteBuffer buffer) {
+      myOwner = owner;
+      myWrapper = wrapper;
+      myBuffer = buffer;
+    }
+
+    /**
+     * @return buffer of the whole page, use {@link PagedFileStorage#getOffsetInPage(int)} to locate an address in it
+     */
+    @NotNull
+    public ByteBuffer getBuffer() {
+      assert !myReleased.get();
+      return myBuffer;
+    }
+
+    public void markDirty() {
+      myOwner.markDirty(myWrapper);
+    }
+
+    public void release() {
+      if (!myReleased.compareAndSet(false, true)) return;
+      myOwner.myStorageLockContext.myStorageLock.releaseLease(myWrapper);
+    }
+  }
+
   public static class StorageLockContext {
     private final boolean myCheckThreadAccess;
     private final SequenceLock myLock;
@@ -21,18 +21,22 @@ import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.LimitedPool;
 import com.intellij.util.containers.SLRUCache;
 import com.intellij.util.containers.hash.EqualityPolicy;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectProcedure;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author Eugene Zhuravlev
@@ -66,6 +70,27 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private boolean myIntAddressForNewRecord;
   private static final boolean doHardConsistencyChecks = true;
 
+  private static final boolean BACKGROUND_COMPACTION = SystemProperties.getBooleanProperty("idea.persistent.hash.map.background.compact", true);
+  private static final int INCREMENTAL_COMPACTION_BATCH_SIZE = 1000;
+  private static final ThreadPoolExecutor ourCompactionExecutor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "PersistentHashMap compaction");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }
+  });
+
+  private boolean myCompactionInProgress;
+  private volatile boolean myBackgroundCompactionPending;
+  private volatile boolean myClosed;
+  private volatile long myLastCompactionReclaimedBytes;
+  private volatile long myLastCompactionPauseTime;
+
+  // read lock is held by concurrent readers of value storage outside of myEnumerator monitor, write lock - when the storage is replaced
+  private final ReadWriteLock myValueStorageLock = new ReentrantReadWriteLock();
+
   private static class AppendStream extends DataOutputStream {
     private AppendStream() {
       super(null);
@@ -155,7 +180,12 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myCanReEnumerate = myEnumerator.canReEnumerate();
 
       if (makesSenseToCompact()) {
-        compact();
+        if (BACKGROUND_COMPACTION) {
+          myBackgroundCompactionPending = true; // scheduled on first access, when subclass constructors are done
+        }
+        else {
+          compact();
+        }
       }
     }
     catch (IOException e) {
@@ -294,6 +324,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   @Override
   public final void put(Key key, Value value) throws IOException {
+    scheduleBackgroundCompactionIfPending();
     synchronized (myEnumerator) {
       doPut(key, value);
     }
@@ -343,6 +374,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   }
   
   public final void appendData(Key key, @NotNull ValueDataAppender appender) throws IOException {
+    scheduleBackgroundCompactionIfPending();
     synchronized (myEnumerator) {
       doAppendData(key, appender);
     }
@@ -394,11 +426,91 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   @Override
   public final Value get(Key key) throws IOException {
+    scheduleBackgroundCompactionIfPending();
+    if (allowsConcurrentReads()) {
+      return doGetConcurrently(key);
+    }
     synchronized (myEnumerator) {
       return doGet(key);
     }
   }
 
+  /**
+   * When true, {@link #get(Object)} resolves value address under map lock only, while value bytes are read and deserialized
+   * outside of it, so readers of the same map are not serialized by I/O and {@link DataExternalizer#read(DataInput)}.
+   * Value externalizer should be safe to call from several threads then, and {@link #doGet(Object)} is not used.
+   */
+  protected boolean allowsConcurrentReads() {
+    return false;
+  }
+
+  @Nullable
+  private Value doGetConcurrently(Key key) throws IOException {
+    final PersistentHashMapValueStorage valueStorage;
+    final long header;
+
+    synchronized (myEnumerator) {
+      myEnumerator.lockStorage();
+      try {
+        myAppendCache.remove(key);
+        final int id = tryEnumerate(key);
+        if (id == PersistentEnumerator.NULL_ID) {
+          return null;
+        }
+        header = readValueId(id);
+        if (header == NULL_ADDR) {
+          return null;
+        }
+        valueStorage = myValueStorage;
+        valueStorage.force();
+        myValueStorageLock.readLock().lock(); // acquired under monitor, so the storage can't be replaced after we got its address
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+    }
+
+    final PersistentHashMapValueStorage.ReadResult readResult;
+    try {
+      // value chunks are never overwritten in place, so bytes at header address stay valid even if the key is remapped meanwhile
+      readResult = valueStorage.readBytesConcurrently(header);
+    }
+    finally {
+      myValueStorageLock.readLock().unlock();
+    }
+
+    if (readResult.chunksCount > 1) {
+      compactReadValue(key, header, readResult.buffer);
+    }
+
+    final DataInputStream input = new DataInputStream(new UnsyncByteArrayInputStream(readResult.buffer));
+    try {
+      return myValueExternalizer.read(input);
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  private void compactReadValue(Key key, long header, byte[] value) throws IOException {
+    synchronized (myEnumerator) {
+      myEnumerator.lockStorage();
+      try {
+        final int id = tryEnumerate(key);
+        if (id == PersistentEnumerator.NULL_ID || readValueId(id) != header) return; // somebody has changed the mapping, nothing to do
+
+        myEnumerator.markDirty(true);
+        long newHeader = myValueStorage.appendBytes(value, 0, value.length, 0);
+        updateValueId(id, newHeader, header, key, 0);
+        myLiveAndGarbageKeysCounter++;
+        myReadCompactionGarbageSize += value.length;
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+    }
+  }
+
   @Nullable
   protected Value doGet(Key key) throws IOException {
     myEnumerator.lockStorage();
@@ -457,6 +569,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   }
 
   public final void remove(Key key) throws IOException {
+    scheduleBackgroundCompactionIfPending();
     synchronized (myEnumerator) {
       doRemove(key);
     }
@@ -494,6 +607,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
 
   @Override
   public final void force() {
+    scheduleBackgroundCompactionIfPending();
     synchronized (myEnumerator) {
       doForce();
     }
@@ -534,7 +648,14 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         myAppendCache.clear();
         final PersistentHashMapValueStorage valueStorage = myValueStorage;
         if (valueStorage != null) {
-          valueStorage.dispose();
+          myValueStorageLock.writeLock().lock();
+          try {
+            myClosed = true;
+            valueStorage.dispose();
+          }
+          finally {
+            myValueStorageLock.writeLock().unlock();
+          }
         }
       }
       finally {
@@ -563,50 +684,75 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   // made public for tests
   public void compact() throws IOException {
     synchronized (myEnumerator) {
+      while (myCompactionInProgress) { // incremental compaction copies values outside of the lock, let it swap the storage first
+        try {
+          myEnumerator.wait();
+        }
+        catch (InterruptedException e) {
+          throw new IOException("Interrupted while waiting for incremental compaction of " + myEnumerator.myFile.getPath(), e);
+        }
+      }
+      myBackgroundCompactionPending = false;
       LOG.info("Compacting "+myEnumerator.myFile.getPath());
       LOG.info("Live keys:" + ((int)(myLiveAndGarbageKeysCounter  / LIVE_KEY_MASK)) +
                ", dead keys:" + ((int)(myLiveAndGarbageKeysCounter & DEAD_KEY_NUMBER_MASK)) +
                ", read compaction size:" + myReadCompactionGarbageSize);
 
+      myEnumerator.lockStorage();
+      try {
+        clearAppenderCaches(); // compaction reads the value file directly, pending appends should be there
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+
       final long now = System.currentTimeMillis();
       final String newPath = getDataFile(myEnumerator.myFile).getPath() + ".new";
-      final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newPath);
-      myValueStorage.switchToCompactionMode();
-      long sizeBefore = myValueStorage.getSize();
+      myValueStorageLock.writeLock().lock();
+      try {
+        final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newPath);
+        myValueStorage.switchToCompactionMode();
+        long sizeBefore = myValueStorage.getSize();
 
-      myLiveAndGarbageKeysCounter = 0;
-      myReadCompactionGarbageSize = 0;
+        myLiveAndGarbageKeysCounter = 0;
+        myReadCompactionGarbageSize = 0;
 
-      try {
-        if (doNewCompact()) {
-          newCompact(newStorage);
-        } else {
-          traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
-            @Override
-            public boolean process(final int keyId) throws IOException {
-              final long record = readValueId(keyId);
-              if (record != NULL_ADDR) {
-                PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
-                long value = newStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
-                updateValueId(keyId, value, record, null, getCurrentKey());
-                myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+        try {
+          if (doNewCompact()) {
+            newCompact(newStorage);
+          } else {
+            traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+              @Override
+              public boolean process(final int keyId) throws IOException {
+                final long record = readValueId(keyId);
+                if (record != NULL_ADDR) {
+                  PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
+                  long value = newStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+                  updateValueId(keyId, value, record, null, getCurrentKey());
+                  myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+                }
+                return true;
               }
-              return true;
-            }
-          });
+            });
+          }
+        }
+        finally {
+          newStorage.dispose();
         }
-      }
-      finally {
-        newStorage.dispose();
-      }
 
-      myValueStorage.dispose();
-      final long newSize = newStorage.getSize();
+        myValueStorage.dispose();
+        final long newSize = newStorage.getSize();
 
-      FileUtil.rename(new File(newPath), getDataFile(myEnumerator.myFile));
+        FileUtil.rename(new File(newPath), getDataFile(myEnumerator.myFile));
 
-      myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
-      LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " + (System.currentTimeMillis() - now) + "ms.");
+        myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
+        LOG.info("Compacted " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " + (System.currentTimeMillis() - now) + "ms.");
+        myLastCompactionReclaimedBytes = sizeBefore - newSize;
+        myLastCompactionPauseTime = System.currentTimeMillis() - now;
+      }
+      finally {
+        myValueStorageLock.writeLock().unlock();
+      }
       myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
       myEnumerator.putMetaData2( myLargeIndexWatermarkId );
     }
@@ -656,6 +802,191 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     LOG.info("Updated mappings:" + (System.currentTimeMillis() - started) + " ms");
   }
 
+  /**
+   * Bytes of value storage reclaimed by last {@link #compact()} or {@link #compactIncrementally()}, also reported in the log
+   */
+  @TestOnly
+  long getLastCompactionReclaimedBytes() {
+    return myLastCompactionReclaimedBytes;
+  }
+
+  /**
+   * Time in ms the map was not accessible during last {@link #compact()} or {@link #compactIncrementally()}, also reported in the log
+   */
+  @TestOnly
+  long getLastCompactionPauseTime() {
+    return myLastCompactionPauseTime;
+  }
+
+  private void scheduleBackgroundCompactionIfPending() {
+    if (!myBackgroundCompactionPending) return;
+    synchronized (myEnumerator) {
+      if (!myBackgroundCompactionPending) return;
+      myBackgroundCompactionPending = false;
+    }
+    scheduleIncrementalCompaction();
+  }
+
+  private void scheduleIncrementalCompaction() {
+    ourCompactionExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          compactIncrementally();
+        }
+        catch (IOException e) {
+          LOG.info("Incremental compaction failed for " + myEnumerator.myFile.getPath(), e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Compacts value storage like {@link #compact()} does, but live values are copied into the new storage in batches without holding
+   * the map lock, so reads and writes continue meanwhile. Only values changed during copying are copied again in the final short pause,
+   * when new storage replaces the old one. Returns false if the map was closed or another compaction is running.
+   */
+  public boolean compactIncrementally() throws IOException {
+    final long started = System.currentTimeMillis();
+    final String newPath = getDataFile(myEnumerator.myFile).getPath() + ".new";
+    final TIntObjectHashMap<CompactionRecordInfo> infos = new TIntObjectHashMap<CompactionRecordInfo>();
+    final PersistentHashMapValueStorage oldStorage;
+    final long sizeBefore;
+    long pauseTime;
+
+    synchronized (myEnumerator) {
+      if (myCompactionInProgress || myClosed) return false;
+      myCompactionInProgress = true;
+
+      long pauseStarted = System.currentTimeMillis();
+      myEnumerator.lockStorage();
+      try {
+        clearAppenderCaches();
+        traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+          @Override
+          public boolean process(final int keyId) throws IOException {
+            final long record = readValueId(keyId);
+            if (record != NULL_ADDR) infos.put(keyId, new CompactionRecordInfo(getCurrentKey(), record, keyId));
+            return true;
+          }
+        });
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+      oldStorage = myValueStorage;
+      sizeBefore = oldStorage.getSize();
+      pauseTime = System.currentTimeMillis() - pauseStarted;
+    }
+
+    FileUtil.delete(new File(newPath));
+    final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newPath);
+    boolean completed = false;
+
+    try {
+      // copy values in address order, so old storage is read sequentially
+      final List<CompactionRecordInfo> toCopy = new ArrayList<CompactionRecordInfo>(infos.size());
+      infos.forEachValue(new TObjectProcedure<CompactionRecordInfo>() {
+        @Override
+        public boolean execute(CompactionRecordInfo info) {
+          toCopy.add(info);
+          return true;
+        }
+      });
+      Collections.sort(toCopy, new Comparator<CompactionRecordInfo>() {
+        @Override
+        public int compare(CompactionRecordInfo info, CompactionRecordInfo info2) {
+          return info.valueAddress < info2.valueAddress ? -1 : info.valueAddress > info2.valueAddress ? 1 : 0;
+        }
+      });
+
+      for (int batchStart = 0; batchStart < toCopy.size(); batchStart += INCREMENTAL_COMPACTION_BATCH_SIZE) {
+        myValueStorageLock.readLock().lock();
+        try {
+          if (myClosed) return false;
+          for (int i = batchStart; i < Math.min(toCopy.size(), batchStart + INCREMENTAL_COMPACTION_BATCH_SIZE); ++i) {
+            final CompactionRecordInfo info = toCopy.get(i);
+            byte[] value = oldStorage.readBytesConcurrently(info.valueAddress).buffer;
+            info.newValueAddress = newStorage.appendBytes(value, 0, value.length, 0);
+          }
+        }
+        finally {
+          myValueStorageLock.readLock().unlock();
+        }
+      }
+
+      synchronized (myEnumerator) {
+        if (myClosed) return false;
+        long pauseStarted = System.currentTimeMillis();
+
+        myValueStorageLock.writeLock().lock();
+        try {
+          myEnumerator.lockStorage();
+          try {
+            clearAppenderCaches();
+            myLiveAndGarbageKeysCounter = 0;
+            myReadCompactionGarbageSize = 0;
+
+            traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+              @Override
+              public boolean process(final int keyId) throws IOException {
+                final long record = readValueId(keyId);
+                if (record != NULL_ADDR) {
+                  final CompactionRecordInfo info = infos.get(keyId);
+                  long value;
+                  if (info != null && info.valueAddress == record) {
+                    value = info.newValueAddress;
+                  }
+                  else { // mapping was changed after copying had started
+                    byte[] bytes = myValueStorage.readBytesConcurrently(record).buffer;
+                    value = newStorage.appendBytes(bytes, 0, bytes.length, 0);
+                  }
+                  updateValueId(keyId, value, record, null, getCurrentKey());
+                  myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+                }
+                return true;
+              }
+            });
+          }
+          finally {
+            myEnumerator.unlockStorage();
+          }
+
+          newStorage.dispose();
+          myValueStorage.dispose();
+          final long newSize = newStorage.getSize();
+
+          FileUtil.rename(new File(newPath), getDataFile(myEnumerator.myFile));
+
+          myValueStorage = PersistentHashMapValueStorage.create(getDataFile(myEnumerator.myFile).getPath());
+          myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+          myEnumerator.putMetaData2(myLargeIndexWatermarkId);
+          completed = true;
+
+          pauseTime += System.currentTimeMillis() - pauseStarted;
+          myLastCompactionReclaimedBytes = sizeBefore - newSize;
+          myLastCompactionPauseTime = pauseTime;
+          LOG.info("Compacted incrementally " + myEnumerator.myFile.getPath() + ":" + sizeBefore + " bytes into " + newSize + " bytes in " +
+                   (System.currentTimeMillis() - started) + "ms, pause " + pauseTime + "ms.");
+        }
+        finally {
+          myValueStorageLock.writeLock().unlock();
+        }
+      }
+      return true;
+    }
+    finally {
+      if (!completed) {
+        newStorage.dispose();
+        FileUtil.delete(new File(newPath));
+      }
+      synchronized (myEnumerator) {
+        myCompactionInProgress = false;
+        myEnumerator.notifyAll();
+      }
+    }
+  }
+
   private long readValueId(final int keyId) {
     long address = myEnumerator.myStorage.getInt(keyId + myParentValueRefOffset);
     if (address == 0 || address == -POSITIVE_VALUE_SHIFT) {
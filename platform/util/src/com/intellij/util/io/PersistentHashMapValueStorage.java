@@ -25,6 +25,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
@@ -264,10 +266,16 @@ public class PersistentHashMapValueStorage {
   public static class ReadResult {
     public final long offset;
     public final byte[] buffer;
+    public final int chunksCount;
 
     public ReadResult(long offset, byte[] buffer) {
+      this(offset, buffer, 1);
+    }
+
+    public ReadResult(long offset, byte[] buffer, int chunksCount) {
       this.offset = offset;
       this.buffer = buffer;
+      this.chunksCount = chunksCount;
     }
   }
 
@@ -277,6 +285,26 @@ public class PersistentHashMapValueStorage {
   public ReadResult readBytes(long tailChunkAddress) throws IOException {
     force();
 
+    ReadResult readResult = readBytes(tailChunkAddress, myBuffer);
+
+    if (readResult.chunksCount > 1 && !myCompactionMode) {
+      long l = appendBytes(new ByteSequence(readResult.buffer), 0);
+      return new ReadResult(l, readResult.buffer);
+    }
+
+    return readResult;
+  }
+
+  /**
+   * Reads bytes pointed by tailChunkAddress without touching the storage state, so several threads can read concurrently.
+   * Caller is responsible for {@link #force()} of pending appends before the call and for linked list compactification
+   * when {@link ReadResult#chunksCount} is greater than one.
+   */
+  public ReadResult readBytesConcurrently(long tailChunkAddress) throws IOException {
+    return readBytes(tailChunkAddress, new byte[1024]);
+  }
+
+  private ReadResult readBytes(long tailChunkAddress, byte[] buffer) throws IOException {
     long chunk = tailChunkAddress;
     int chunkCount = 0;
 
@@ -291,31 +319,31 @@ public class PersistentHashMapValueStorage {
     try {
       while (chunk != 0) {
         if (chunk < 0 || chunk > mySize) throw new PersistentEnumeratorBase.CorruptedException(myFile);
-        int len = (int)Math.min(myBuffer.length, mySize - chunk);
-        reader.get(chunk, myBuffer, 0, len);
+        int len = (int)Math.min(buffer.length, mySize - chunk);
+        reader.get(chunk, buffer, 0, len);
 
-        final int sizePart = myBuffer[0];
+        final int sizePart = buffer[0];
         final long prevChunkAddress;
         final int chunkSize;
 
         if (sizePart < 0) {
           chunkSize = -sizePart - POSITIVE_VALUE_SHIFT;
-          prevChunkAddress = Bits.getInt(myBuffer, 1);
+          prevChunkAddress = Bits.getInt(buffer, 1);
           byte[] b = new byte[(result != null ? result.length:0) + chunkSize];
           if (result != null) System.arraycopy(result, 0, b, b.length - result.length, result.length);
           result = b;
 
           checkPreconditions(result, chunkSize, 0);
-          System.arraycopy(myBuffer, BYTE_LENGTH_INT_ADDRESS, result, 0, chunkSize);
+          System.arraycopy(buffer, BYTE_LENGTH_INT_ADDRESS, result, 0, chunkSize);
         } else {
-          chunkSize = Bits.getInt(myBuffer, 0);
-          prevChunkAddress = Bits.getLong(myBuffer, 4);
+          chunkSize = Bits.getInt(buffer, 0);
+          prevChunkAddress = Bits.getLong(buffer, 4);
           byte[] b = new byte[(result != null ? result.length:0) + chunkSize];
           if (result != null) System.arraycopy(result, 0, b, b.length - result.length, result.length);
           result = b;
 
-          if (chunkSize < myBuffer.length - INT_LENGTH_LONG_ADDRESS) {
-            System.arraycopy(myBuffer, INT_LENGTH_LONG_ADDRESS, result, 0, chunkSize);
+          if (chunkSize < buffer.length - INT_LENGTH_LONG_ADDRESS) {
+            System.arraycopy(buffer, INT_LENGTH_LONG_ADDRESS, result, 0, chunkSize);
           } else {
             reader.get(chunk + INT_LENGTH_LONG_ADDRESS, result, 0, chunkSize);
           }
@@ -339,12 +367,7 @@ public class PersistentHashMapValueStorage {
       }
     }
 
-    if (chunkCount > 1 && !myCompactionMode) {
-      long l = appendBytes(new ByteSequence(result), 0);
-      return new ReadResult(l, result);
-    }
-
-    return new ReadResult(tailChunkAddress, result);
+    return new ReadResult(tailChunkAddress, result, chunkCount);
   }
 
   public long getSize() {
@@ -408,10 +431,12 @@ public class PersistentHashMapValueStorage {
 
   private static class FileReader implements RAReader {
     private final RandomAccessFile myFile;
+    private final FileChannel myChannel;
 
     private FileReader(File file) {
       try {
         myFile = new RandomAccessFile(file, "r");
+        myChannel = myFile.getChannel();
       }
       catch (FileNotFoundException e) {
         throw new RuntimeException(e);
@@ -419,8 +444,14 @@ public class PersistentHashMapValueStorage {
     }
 
     public void get(final long addr, final byte[] dst, final int off, final int len) throws IOException {
-      myFile.seek(addr);
-      myFile.read(dst, off, len);
+      // positional reads don't move the file pointer, so cached readers are shared by concurrent readBytesConcurrently() calls
+      final ByteBuffer buffer = ByteBuffer.wrap(dst, off, len);
+      long position = addr;
+      while (buffer.hasRemaining()) {
+        final int read = myChannel.read(buffer, position);
+        if (read < 0) break;
+        position += read;
+      }
     }
 
     public void dispose() {
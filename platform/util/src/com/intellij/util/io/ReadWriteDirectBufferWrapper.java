@@ -38,8 +38,10 @@ public class ReadWriteDirectBufferWrapper extends DirectBufferWrapper {
       final FileChannel channel = file.getChannel();
       try {
         channel.position(myPosition);
-        final ByteBuffer buffer = ByteBuffer.allocateDirect((int)myLength);
-        channel.read(buffer);
+        final DirectBufferPool pool = DirectBufferPool.ourInstance;
+        final ByteBuffer buffer = pool.isEnabled() ? pool.allocate((int)myLength) : ByteBuffer.allocateDirect((int)myLength);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) ;
+        while (buffer.hasRemaining()) buffer.put((byte)0); // reused buffer can contain data of another page
         return buffer;
       }
       finally {
@@ -51,6 +53,17 @@ public class ReadWriteDirectBufferWrapper extends DirectBufferWrapper {
     }
   }
 
+  @Override
+  protected void releaseBuffer(ByteBuffer buffer) {
+    final DirectBufferPool pool = DirectBufferPool.ourInstance;
+    if (pool.isEnabled()) {
+      pool.release(buffer);
+    }
+    else {
+      super.releaseBuffer(buffer);
+    }
+  }
+
   @Override
   public void flush() {
     final ByteBuffer buffer = getCachedBuffer();
@@ -22,6 +22,7 @@ package com.intellij.util.io;
 import com.intellij.openapi.Forceable;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
@@ -199,6 +200,14 @@ public class ResizeableMappedFile implements Forceable {
     myStorage.put(index, src, offset, length);
   }
 
+  /**
+   * @see PagedFileStorage#leasePage(int)
+   */
+  @NotNull
+  public PagedFileStorage.PageLease leasePage(int index) {
+    return myStorage.leasePage(index);
+  }
+
   public void close() {
     try {
       force();
@@ -25,6 +25,8 @@ import com.intellij.util.ArrayUtil;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
@@ -40,6 +42,14 @@ public class JBZipEntry implements Cloneable {
   private static final int PLATFORM_FAT = 0;
   private static final int SHORT_MASK = 0xFFFF;
   private static final int SHORT_SHIFT = 16;
+  private static final int INFLATE_CHUNK_SIZE = 8192;
+
+  private static final ThreadLocal<InflateBuffers> ourInflateBuffers = new ThreadLocal<InflateBuffers>() {
+    @Override
+    protected InflateBuffers initialValue() {
+      return new InflateBuffers();
+    }
+  };
 
   private long time = -1;     // modification time (in DOS time)
   private long crc = -1;      // crc-32 of entry data
@@ -452,6 +462,14 @@ public class JBZipEntry implements Cloneable {
   public byte[] getData() throws IOException {
     if (size == -1) throw new IOException("no data");
 
+    if (myFile.getMappedArchive() != null) {
+      final ByteBuffer buffer = getDataBuffer();
+      if (buffer.hasArray()) return buffer.array(); // freshly inflated
+      final byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return bytes;
+    }
+
     final InputStream stream = getInputStream();
     try {
       return FileUtil.loadBytes(stream, (int)size);
@@ -461,6 +479,91 @@ public class JBZipEntry implements Cloneable {
     }
   }
 
+  /**
+   * Returns the entry content. For an archive opened read-only stored entries are returned as read-only slices of
+   * the mapped archive, and deflated ones are inflated straight into an array of the entry size, without
+   * intermediate streams and buffers.
+   */
+  public ByteBuffer getDataBuffer() throws IOException {
+    final ByteBuffer mapped = myFile.getMappedArchive();
+    if (mapped == null) return ByteBuffer.wrap(getData());
+    if (size == -1) throw new IOException("no data");
+
+    final ByteBuffer data = mapped.duplicate();
+    try {
+      final int start = calcDataOffset(data);
+      data.limit((int)(start + getCompressedSize())).position(start);
+    }
+    catch (IllegalArgumentException e) {
+      throw new ZipException("entry " + name + " is out of archive bounds");
+    }
+    catch (IndexOutOfBoundsException e) {
+      throw new ZipException("entry " + name + " is out of archive bounds");
+    }
+
+    switch (getMethod()) {
+      case ZipEntry.STORED:
+        return data.slice();
+      case ZipEntry.DEFLATED:
+        return ByteBuffer.wrap(inflate(data, (int)size));
+      default:
+        throw new ZipException("Found unsupported compression method " + getMethod());
+    }
+  }
+
+  private byte[] inflate(ByteBuffer compressed, int size) throws IOException {
+    final byte[] result = new byte[size];
+    final InflateBuffers buffers = ourInflateBuffers.get();
+    final Inflater inflater = buffers.inflater;
+    final byte[] input = buffers.input;
+    int written = 0;
+    boolean dummyByteAdded = false;
+    try {
+      while (written < size) {
+        if (inflater.needsInput()) {
+          final int chunk = Math.min(input.length, compressed.remaining());
+          if (chunk > 0) {
+            compressed.get(input, 0, chunk);
+            inflater.setInput(input, 0, chunk);
+          }
+          else if (!dummyByteAdded) {
+            // Inflater needs an extra dummy byte for nowrap - see Inflater's javadocs
+            dummyByteAdded = true;
+            input[0] = 0;
+            inflater.setInput(input, 0, 1);
+          }
+          else {
+            break;
+          }
+        }
+        final int inflated = inflater.inflate(result, written, size - written);
+        if (inflated == 0 && (inflater.finished() || inflater.needsDictionary())) break;
+        written += inflated;
+      }
+    }
+    catch (DataFormatException e) {
+      throw new ZipException("entry " + name + ": " + e.getMessage());
+    }
+    finally {
+      inflater.reset();
+    }
+    if (written != size) throw new ZipException("unexpected end of entry " + name);
+    return result;
+  }
+
+  private static class InflateBuffers {
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] input = new byte[INFLATE_CHUNK_SIZE];
+  }
+
+  private int calcDataOffset(ByteBuffer mapped) {
+    final int offset = (int)getHeaderOffset();
+    final int lengths = offset + (int)JBZipFile.LFH_OFFSET_FOR_FILENAME_LENGTH;
+    final int fileNameLen = (mapped.get(lengths) & 0xFF) | (mapped.get(lengths + 1) & 0xFF) << 8;
+    final int extraFieldLen = (mapped.get(lengths + 2) & 0xFF) | (mapped.get(lengths + 3) & 0xFF) << 8;
+    return lengths + JBZipFile.WORD + fileNameLen + extraFieldLen;
+  }
+
   private long calcDataOffset() throws IOException {
     long offset = getHeaderOffset();
     myFile.archive.seek(offset + JBZipFile.LFH_OFFSET_FOR_FILENAME_LENGTH);
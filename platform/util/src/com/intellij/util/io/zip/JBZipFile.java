@@ -25,6 +25,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -56,6 +58,9 @@ import java.util.zip.ZipException;
  * <code>org.apache.tools.zip.ZipEntry</code> instances.</li>
  * <li>close is allowed to throw IOException.</li>
  * </ul>
+ * <p/>
+ * <p>An archive opened read-only is memory-mapped and its file is closed right after the central directory
+ * is read, entry contents are then served from the mapping (see {@link JBZipEntry#getDataBuffer()}).</p>
  */
 public class JBZipFile {
   private static final int HASH_SIZE = 509;
@@ -93,6 +98,9 @@ public class JBZipFile {
    */
   final RandomAccessFile archive;
 
+  private final boolean myReadOnly;
+  private ByteBuffer myMappedArchive;
+
   private JBZipOutputStream myOutputStream;
   private long currentcfdfoffset = 0;
 
@@ -139,10 +147,30 @@ public class JBZipFile {
    * @throws IOException if an error occurs while reading the file.
    */
   public JBZipFile(File f, String encoding) throws IOException {
+    this(f, encoding, false);
+  }
+
+  /**
+   * Opens the given file, assuming the specified encoding for file names.
+   *
+   * @param f        the archive.
+   * @param encoding the encoding to use for file names
+   * @param readOnly if true, the archive is memory-mapped and cannot be modified
+   * @throws IOException if an error occurs while reading the file.
+   */
+  public JBZipFile(File f, String encoding, boolean readOnly) throws IOException {
     this.encoding = encoding;
-    archive = new RandomAccessFile(f, "rw");
+    myReadOnly = readOnly;
+    archive = new RandomAccessFile(f, readOnly ? "r" : "rw");
     try {
-      if (archive.length() > 0) {
+      if (readOnly) {
+        final long length = archive.length();
+        if (length > Integer.MAX_VALUE) throw new ZipException("archive is too large to be mapped: " + f);
+        populateFromCentralDirectory();
+        myMappedArchive = archive.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        archive.close(); // the mapping stays valid
+      }
+      else if (archive.length() > 0) {
         populateFromCentralDirectory();
       }
       else {
@@ -175,6 +203,10 @@ public class JBZipFile {
    * @throws IOException if an error occurs closing the archive.
    */
   public void close() throws IOException {
+    if (myReadOnly) {
+      myMappedArchive = null;
+      return;
+    }
     if (myOutputStream != null) {
       if (entries.isEmpty()) {
         final JBZipEntry empty = getOrCreateEntry("/empty.file.marker");
@@ -449,7 +481,18 @@ public class JBZipFile {
     nameMap.remove(entry.getName());
   }
 
+  /**
+   * @return the archive mapping if the archive is opened read-only, null otherwise
+   */
+  ByteBuffer getMappedArchive() throws IOException {
+    if (!myReadOnly) return null;
+    final ByteBuffer mapped = myMappedArchive;
+    if (mapped == null) throw new IOException("archive is closed");
+    return mapped;
+  }
+
   JBZipOutputStream getOutputStream() throws IOException {
+    if (myReadOnly) throw new IOException("archive is opened read-only");
     if (myOutputStream == null) {
       myOutputStream = new JBZipOutputStream(this, currentcfdfoffset);
     }
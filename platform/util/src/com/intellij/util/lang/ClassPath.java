@@ -120,14 +120,18 @@ public class ClassPath {
     try {
       int i;
       if (myCanUseCache) {
-        Resource prevResource = myCache.iterateLoaders(s, flag ? checkedIterator:uncheckedIterator, s, this);
-        if (prevResource != null) return prevResource;
-
-        synchronized (myUrls) {
-          if (myUrls.isEmpty()) return null;
+        // loaders are registered in the cache before they are added, so the lookup below covers all the loaders counted here,
+        // while the ones added concurrently are checked one by one
+        boolean allUrlsWereProcessed;
+        synchronized (this) {
+          i = myLoaders.size();
+          synchronized (myUrls) {
+            allUrlsWereProcessed = myUrls.isEmpty();
+          }
         }
 
-        i = myLoaders.size();
+        Resource prevResource = myCache.iterateLoaders(s, flag ? checkedIterator:uncheckedIterator, s, this);
+        if (prevResource != null || allUrlsWereProcessed) return prevResource;
       }
       else {
         i = 0;
@@ -34,10 +34,17 @@ import sun.misc.Resource;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Thread-safe: loaders are registered under the owning class path's lock while lookups may run concurrently
+ * from a parallel capable {@link UrlClassLoader}.
+ */
 public class ClasspathCache {
   private static final boolean doDebug = false;
   private final DebugInfo myDebugInfo;
+  private final ReadWriteLock myLock = new ReentrantReadWriteLock();
 
   private final TIntObjectHashMap<Object> myResourcePackagesCache = new TIntObjectHashMap<Object>();
   private final TIntObjectHashMap<Object> myClassPackagesCache = new TIntObjectHashMap<Object>();
@@ -52,22 +59,29 @@ public class ClasspathCache {
   }
 
   public void addResourceEntry(String resourcePath, Loader loader) {
-    myDebugInfo.addResourceEntry(resourcePath, loader);
-
     String packageName = getPackageName(resourcePath);
     TIntObjectHashMap<Object> map = resourcePath.endsWith(UrlClassLoader.CLASS_EXTENSION) ?
                                     myClassPackagesCache : myResourcePackagesCache;
     int hash = packageName.hashCode();
-    Object o = map.get(hash);
-    if (o == null) map.put(hash, loader);
-    else if (o instanceof Loader) {
-      if (o != loader) map.put(hash, new Loader [] {(Loader)o, loader});
-    } else {
-      Loader[] loadersArray = (Loader[])o;
-      for(Loader l:loadersArray) {
-        if (l == loader) return;
+
+    myLock.writeLock().lock();
+    try {
+      myDebugInfo.addResourceEntry(resourcePath, loader);
+
+      Object o = map.get(hash);
+      if (o == null) map.put(hash, loader);
+      else if (o instanceof Loader) {
+        if (o != loader) map.put(hash, new Loader [] {(Loader)o, loader});
+      } else {
+        Loader[] loadersArray = (Loader[])o;
+        for(Loader l:loadersArray) {
+          if (l == loader) return;
+        }
+        map.put(hash, ArrayUtil.append(loadersArray, loader)); // arrays are never modified, so lookups may iterate them unlocked
       }
-      map.put(hash, ArrayUtil.append(loadersArray, loader));
+    }
+    finally {
+      myLock.writeLock().unlock();
     }
   }
 
@@ -86,9 +100,16 @@ public class ClasspathCache {
     String packageName = getPackageName(resourcePath);
     
     int hash = packageName.hashCode();
-    Object o = map.get(hash);
-    myDebugInfo.checkLoadersCount(resourcePath, o);
-      
+    Object o;
+    myLock.readLock().lock();
+    try {
+      o = map.get(hash);
+      myDebugInfo.checkLoadersCount(resourcePath, o);
+    }
+    finally {
+      myLock.readLock().unlock();
+    }
+
     if (o == null) return null;
     if (o instanceof Loader) return iterator.process((Loader)o, parameter, parameter2);
     Loader[] loaders = (Loader[])o;
@@ -109,18 +130,24 @@ public class ClasspathCache {
 
   public void addNameEntry(String name, Loader loader) {
     name = transformName(name);
-    myDebugInfo.addNameEntry(name, loader);
-    if (myTempMapMode) {
-      Set<Loader> loaders = myResources2LoadersTempMap.get(name);
-      if (loaders == null) myResources2LoadersTempMap.put(name, loaders = new THashSet<Loader>());
-      boolean added = loaders.add(loader);
-      if (UrlClassLoader.doDebug && added) ++registeredBeforeClose;
-    } else {
-      if (UrlClassLoader.doDebug) {
-        if (!myNameFilter.maybeContains(name, loader)) ++registeredAfterClose;
-      }
+    myLock.writeLock().lock();
+    try {
+      myDebugInfo.addNameEntry(name, loader);
+      if (myTempMapMode) {
+        Set<Loader> loaders = myResources2LoadersTempMap.get(name);
+        if (loaders == null) myResources2LoadersTempMap.put(name, loaders = new THashSet<Loader>());
+        boolean added = loaders.add(loader);
+        if (UrlClassLoader.doDebug && added) ++registeredBeforeClose;
+      } else {
+        if (UrlClassLoader.doDebug) {
+          if (!myNameFilter.maybeContains(name, loader)) ++registeredAfterClose;
+        }
 
-      myNameFilter.add(name, loader);
+        myNameFilter.add(name, loader);
+      }
+    }
+    finally {
+      myLock.writeLock().unlock();
     }
   }
 
@@ -128,6 +155,16 @@ public class ClasspathCache {
     String origName = name;
     name = transformName(name);
 
+    myLock.readLock().lock();
+    try {
+      return loaderHasTransformedName(name, origName, loader);
+    }
+    finally {
+      myLock.readLock().unlock();
+    }
+  }
+
+  private boolean loaderHasTransformedName(String name, String origName, Loader loader) {
     boolean result;
     if (myTempMapMode) {
       ++requests;
@@ -214,6 +251,16 @@ public class ClasspathCache {
   private static int diffs3;
 
   void nameSymbolsLoaded() {
+    myLock.writeLock().lock();
+    try {
+      doNameSymbolsLoaded();
+    }
+    finally {
+      myLock.writeLock().unlock();
+    }
+  }
+
+  private void doNameSymbolsLoaded() {
     if (!myTempMapMode) {
       if (UrlClassLoader.doDebug && registeredAfterClose > 0) {
         UrlClassLoader.debug("Registered number of classes after close "+registeredAfterClose + " "+toString());
@@ -33,7 +33,7 @@ import java.util.zip.ZipFile;
 
 class JarLoader extends Loader {
   private final URL myURL;
-  private SoftReference<JarMemoryLoader> myMemoryLoader;
+  private volatile SoftReference<JarMemoryLoader> myMemoryLoader;
   private final boolean myCanLockJar;
   private static final boolean myDebugTime = false;
   private static int misses;
@@ -148,8 +148,9 @@ class JarLoader extends Loader {
   @Nullable
   Resource getResource(String name, boolean flag) {
     final long started = myDebugTime ? System.nanoTime():0;
-    if (myMemoryLoader != null) {
-      JarMemoryLoader loader = myMemoryLoader.get();
+    SoftReference<JarMemoryLoader> memoryLoaderRef = myMemoryLoader;
+    if (memoryLoaderRef != null) {
+      JarMemoryLoader loader = memoryLoaderRef.get();
       if (loader != null) {
         Resource resource = loader.getResource(name);
         if (resource != null) return resource;
@@ -18,6 +18,7 @@ package com.intellij.util.lang;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.Function;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -26,6 +27,7 @@ import sun.misc.Resource;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -35,6 +37,12 @@ import java.util.Enumeration;
 import java.util.List;
 
 public class UrlClassLoader extends ClassLoader {
+  @Nullable private static final Method ourGetClassLoadingLock = getClassLoadingLockMethod();
+
+  static {
+    registerAsParallelCapableIfPossible();
+  }
+
   private final ClassPath myClassPath;
   private final List<URL> myURLs;
   @NonNls static final String CLASS_EXTENSION = ".class";
@@ -70,6 +78,67 @@ public class UrlClassLoader extends ClassLoader {
     myURLs = list;
   }
 
+  /**
+   * Java 7 class loaders may declare that classes of different names can be loaded concurrently.
+   */
+  private static void registerAsParallelCapableIfPossible() {
+    Method method = getRegisterAsParallelCapableMethod();
+    if (method == null) return;
+    try {
+      method.invoke(null); // registers the caller, which is this class
+    }
+    catch (Exception ignored) {
+    }
+  }
+
+  /**
+   * {@code ClassLoader.registerAsParallelCapable()} registers the class which calls it, provided its superclass is registered, so subclasses
+   * loading classes concurrently invoke the returned method from their own static initializers. Those overriding
+   * {@link #loadClass(String, boolean)} should lock on {@link #getClassLoadingLockIfPossible(String)} instead of the loader.
+   *
+   * @return null if parallel class loading is disabled or not supported (Java 6)
+   */
+  @Nullable
+  protected static Method getRegisterAsParallelCapableMethod() {
+    if (!SystemProperties.getBooleanProperty("idea.parallel.class.loading", true)) return null;
+    try {
+      Method method = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+      method.setAccessible(true);
+      return method;
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return object to hold while loading the class of the given name: a lock of its own if this loader is registered as parallel capable,
+   * the loader itself otherwise
+   */
+  @NotNull
+  protected Object getClassLoadingLockIfPossible(@NotNull String className) {
+    if (ourGetClassLoadingLock != null) {
+      try {
+        return ourGetClassLoadingLock.invoke(this, className);
+      }
+      catch (Exception ignored) {
+      }
+    }
+    return this;
+  }
+
+  @Nullable
+  private static Method getClassLoadingLockMethod() {
+    try {
+      Method method = ClassLoader.class.getDeclaredMethod("getClassLoadingLock", String.class);
+      method.setAccessible(true);
+      return method;
+    }
+    catch (Exception e) {
+      return null; // Java 6
+    }
+  }
+
   @NotNull
   public static URL internProtocol(@NotNull URL url) {
     try {
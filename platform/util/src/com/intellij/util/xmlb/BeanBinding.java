@@ -47,6 +47,12 @@ class BeanBinding implements Binding {
   private final String myTagName;
   private final Map<Binding, Accessor> myPropertyBindings = new HashMap<Binding, Accessor>();
   private final List<Binding> myPropertyBindingsList = new ArrayList<Binding>();
+  // filled on init, so that serialization needs no map lookups and annotation scans per property
+  private Binding[] myBindings;
+  private Accessor[] myAccessors;
+  private Property[] myProperties;
+  private SerializationFilter[] myPropertyFilters;
+  private Binding[] myDeserializationBindings;
   private final Class<?> myBeanClass;
   @NonNls private static final String CLASS_PROPERTY = "class";
   private final Accessor myAccessor;
@@ -71,6 +77,17 @@ class BeanBinding implements Binding {
       myPropertyBindingsList.add(binding);
       myPropertyBindings.put(binding, accessor);
     }
+
+    final int count = myPropertyBindingsList.size();
+    myBindings = myPropertyBindingsList.toArray(new Binding[count]);
+    myAccessors = new Accessor[count];
+    myProperties = new Property[count];
+    for (int i = 0; i < count; i++) {
+      myAccessors[i] = myPropertyBindings.get(myBindings[i]);
+      myProperties[i] = XmlSerializerImpl.findAnnotation(myAccessors[i].getAnnotations(), Property.class);
+    }
+    myPropertyFilters = new SerializationFilter[count];
+    myDeserializationBindings = myPropertyBindings.keySet().toArray(new Binding[count]);
   }
 
   @Override
@@ -83,23 +100,12 @@ class BeanBinding implements Binding {
   }
 
   public void serializeInto(final Object o, final Element element, SerializationFilter filter) {
-    for (Binding binding : myPropertyBindingsList) {
-      Accessor accessor = myPropertyBindings.get(binding);
+    for (int i = 0; i < myBindings.length; i++) {
+      Binding binding = myBindings[i];
+      Accessor accessor = myAccessors[i];
       if (!filter.accepts(accessor, o)) continue;
 
-      //todo: optimize. Cache it.
-      final Property property = XmlSerializerImpl.findAnnotation(accessor.getAnnotations(), Property.class);
-      if (property != null) {
-        try {
-          if (!property.filter().newInstance().accepts(accessor, o)) continue;
-        }
-        catch (InstantiationException e) {
-          throw new XmlSerializationException(e);
-        }
-        catch (IllegalAccessException e) {
-          throw new XmlSerializationException(e);
-        }
-      }
+      if (myProperties[i] != null && !getPropertyFilter(i).accepts(accessor, o)) continue;
 
       Object node = binding.serialize(o, element, filter);
       if (node != element) {
@@ -114,6 +120,24 @@ class BeanBinding implements Binding {
     }
   }
 
+  @NotNull
+  private SerializationFilter getPropertyFilter(int i) {
+    SerializationFilter propertyFilter = myPropertyFilters[i];
+    if (propertyFilter == null) {
+      try {
+        // filters are stateless, racing threads may create the instance twice
+        myPropertyFilters[i] = propertyFilter = myProperties[i].filter().newInstance();
+      }
+      catch (InstantiationException e) {
+        throw new XmlSerializationException(e);
+      }
+      catch (IllegalAccessException e) {
+        throw new XmlSerializationException(e);
+      }
+    }
+    return propertyFilter;
+  }
+
   public void deserializeInto(final Object bean, @NotNull Element element) {
     _deserializeInto(bean, element);
   }
@@ -136,7 +160,7 @@ class BeanBinding implements Binding {
     assert nodes.get(0) instanceof Element : "Wrong node: " + nodes;
     Element e = (Element)nodes.get(0);
 
-    ArrayList<Binding> bindings = new ArrayList<Binding>(myPropertyBindings.keySet());
+    Binding[] bindings = myDeserializationBindings;
 
     MultiMap<Binding, Object> data = new MultiMap<Binding, Object>();
 
@@ -49,8 +49,14 @@ class FieldAccessor implements Accessor {
     }
   }
 
+  private Annotation[] myAnnotationCache;
+
   public Annotation[] getAnnotations() {
-    return myField.getAnnotations();
+    Annotation[] annotations = myAnnotationCache;
+    if (annotations == null) {
+      annotations = myAnnotationCache = myField.getAnnotations();
+    }
+    return annotations;
   }
 
   public String getName() {
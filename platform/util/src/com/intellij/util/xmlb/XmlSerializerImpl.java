@@ -31,7 +31,8 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 class XmlSerializerImpl {
   private final SerializationFilter filter;
-  private static SoftReference<Map<Pair<Type, Accessor>, Binding>> ourBindings;
+  private static volatile SoftReference<BindingCache> ourBindings;
+  private static BindingCache ourCacheInCreation; // holds the cache while bindings are initialized, guarded by the class lock
 
   public XmlSerializerImpl(SerializationFilter filter) {
     this.filter = filter;
@@ -71,29 +72,62 @@ class XmlSerializerImpl {
     throw new UnsupportedOperationException("Can't get binding for: " + type);
   }
 
-  private static synchronized Binding _getClassBinding(Class<?> aClass, Type originalType, final Accessor accessor) {
+  private static Binding _getClassBinding(Class<?> aClass, Type originalType, final Accessor accessor) {
     final Pair<Type, Accessor> p = new Pair<Type, Accessor>(originalType, accessor);
 
-    Map<Pair<Type, Accessor>, Binding> map = getBindingCacheMap();
+    SoftReference<BindingCache> ref = ourBindings;
+    BindingCache cache = ref == null ? null : ref.get();
+    if (cache != null) {
+      Binding binding = cache.initialized.get(p);
+      if (binding != null) return binding;
+    }
+
+    return createClassBinding(aClass, originalType, accessor, p);
+  }
+
+  private static synchronized Binding createClassBinding(Class<?> aClass, Type originalType, Accessor accessor, Pair<Type, Accessor> p) {
+    final boolean outermost = ourCacheInCreation == null;
+    final BindingCache cache = outermost ? getBindingCache() : ourCacheInCreation;
 
-    Binding binding = map.get(p);
+    Binding binding = cache.all.get(p);
     if (binding == null) {
       binding = _getNonCachedClassBinding(aClass, accessor, originalType);
-      map.put(p, binding);
-      binding.init();
+      cache.all.put(p, binding); // recursive types get this binding before it's initialized
+      cache.pending.put(p, binding);
+      ourCacheInCreation = cache;
+      try {
+        binding.init();
+      }
+      finally {
+        if (outermost) {
+          ourCacheInCreation = null;
+          // bindings of a recursive type may be initialized only when the outermost one is
+          cache.initialized.putAll(cache.pending);
+          cache.pending.clear();
+        }
+      }
     }
 
     return binding;
   }
 
-  private static Map<Pair<Type, Accessor>, Binding> getBindingCacheMap() {
-    SoftReference<Map<Pair<Type, Accessor>, Binding>> ref = ourBindings;
-    Map<Pair<Type, Accessor>, Binding> map = ref == null ? null : ref.get();
-    if (map == null) {
-      map = new ConcurrentHashMap<Pair<Type, Accessor>, Binding>();
-      ourBindings = new SoftReference<Map<Pair<Type, Accessor>, Binding>>(map);
+  private static BindingCache getBindingCache() {
+    SoftReference<BindingCache> ref = ourBindings;
+    BindingCache cache = ref == null ? null : ref.get();
+    if (cache == null) {
+      cache = new BindingCache();
+      ourBindings = new SoftReference<BindingCache>(cache);
     }
-    return map;
+    return cache;
+  }
+
+  /**
+   * Initialized bindings are looked up without locking, the rest is guarded by the class lock.
+   */
+  private static class BindingCache {
+    private final Map<Pair<Type, Accessor>, Binding> initialized = new ConcurrentHashMap<Pair<Type, Accessor>, Binding>();
+    private final Map<Pair<Type, Accessor>, Binding> all = new HashMap<Pair<Type, Accessor>, Binding>();
+    private final Map<Pair<Type, Accessor>, Binding> pending = new HashMap<Pair<Type, Accessor>, Binding>();
   }
 
   private static Binding _getNonCachedClassBinding(final Class<?> aClass, final Accessor accessor, final Type originalType) {
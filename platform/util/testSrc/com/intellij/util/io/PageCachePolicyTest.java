@@ -0,0 +1,159 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Conditions;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+public class PageCachePolicyTest extends TestCase {
+  private static final int CACHE_SIZE = 20;
+  private static final int HOT_PAGES = 5;
+  private static final int SCAN_PAGES = 1000;
+
+  public void testScanDoesNotEvictHotPages() {
+    PageCachePolicy policy = new PageCachePolicy.ScanResistant();
+    warmUpHotPages(policy);
+
+    scan(policy);
+
+    for (int page = 0; page < HOT_PAGES; page++) {
+      assertNotNull("hot page " + page + " was evicted by scan", policy.get(page));
+    }
+  }
+
+  public void testInterleavedScansOfTwoStoragesDoNotEvictHotPages() {
+    PageCachePolicy policy = new PageCachePolicy.ScanResistant();
+    warmUpHotPages(policy);
+
+    int storage1 = 1 << 16;
+    int storage2 = 2 << 16;
+    for (int page = 0; page < SCAN_PAGES; page++) {
+      for (int access = 0; access < 40; access++) { // e.g. key and value files of one map read alternately
+        access(policy, storage1 | page);
+        access(policy, storage2 | page);
+      }
+    }
+
+    for (int page = 0; page < HOT_PAGES; page++) {
+      assertNotNull("hot page " + page + " was evicted by scans", policy.get(page));
+    }
+  }
+
+  public void testLruIsNotScanResistant() {
+    PageCachePolicy policy = new PageCachePolicy.Lru();
+    warmUpHotPages(policy);
+
+    scan(policy);
+
+    for (int page = 0; page < HOT_PAGES; page++) {
+      assertNull(policy.get(page));
+    }
+  }
+
+  public void testRemovedPagesAreNotVictims() {
+    PageCachePolicy policy = new PageCachePolicy.ScanResistant();
+    for (int page = 0; page < 3; page++) {
+      access(policy, page);
+    }
+    policy.remove(0);
+    policy.remove(1);
+    policy.remove(2);
+
+    assertNull(policy.selectVictim(Conditions.<ByteBufferWrapper>alwaysTrue()));
+    assertTrue(policy.getPages().isEmpty());
+  }
+
+  public void testPagesThatCannotBeEvictedKeepTheirPlace() {
+    final PageCachePolicy policy = new PageCachePolicy.ScanResistant();
+    warmUpHotPages(policy);
+
+    // e.g. a leased page, it is skipped by eviction while the scan goes
+    final ByteBufferWrapper pinned = policy.get(0);
+    Condition<ByteBufferWrapper> notPinned = new Condition<ByteBufferWrapper>() {
+      @Override
+      public boolean value(ByteBufferWrapper wrapper) {
+        return wrapper != pinned;
+      }
+    };
+    for (int page = 10000; page < 10000 + SCAN_PAGES; page++) {
+      access(policy, page, notPinned);
+      assertSame(pinned, policy.getPages().get(0));
+    }
+
+    scan(policy);
+
+    for (int page = 0; page < HOT_PAGES; page++) {
+      assertNotNull("hot page " + page + " was evicted by scan", policy.get(page));
+    }
+  }
+
+  private static void warmUpHotPages(PageCachePolicy policy) {
+    for (int round = 0; round < 100; round++) {
+      for (int page = 0; page < HOT_PAGES; page++) {
+        access(policy, page);
+      }
+    }
+  }
+
+  private static void scan(PageCachePolicy policy) {
+    for (int page = 10000; page < 10000 + SCAN_PAGES; page++) {
+      for (int access = 0; access < 10; access++) { // scans touch each page several times in a row
+        access(policy, page);
+      }
+    }
+  }
+
+  private static void access(PageCachePolicy policy, int page) {
+    access(policy, page, Conditions.<ByteBufferWrapper>alwaysTrue());
+  }
+
+  private static void access(PageCachePolicy policy, int page, Condition<ByteBufferWrapper> canBeEvicted) {
+    if (policy.get(page) == null) {
+      policy.put(page, new TestWrapper());
+      while (policy.getPages().size() > CACHE_SIZE) {
+        policy.remove(policy.selectVictim(canBeEvicted));
+      }
+    }
+  }
+
+  private static class TestWrapper extends ByteBufferWrapper {
+    private TestWrapper() {
+      super(new File("test"), 0, 1);
+    }
+
+    @Override
+    public ByteBuffer getCachedBuffer() {
+      return null;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+      return null;
+    }
+
+    @Override
+    public void unmap() {
+    }
+
+    @Override
+    public void flush() {
+    }
+  }
+}
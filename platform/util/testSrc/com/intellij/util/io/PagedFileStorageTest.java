@@ -20,9 +20,12 @@ import junit.framework.TestCase;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class PagedFileStorageTest extends TestCase {
   private final PagedFileStorage.StorageLock lock = new PagedFileStorage.StorageLock();
@@ -118,6 +121,128 @@ public class PagedFileStorageTest extends TestCase {
     }
   }
 
+  public void testPageLease() throws IOException {
+    lock.lock();
+    try {
+      s.resize(1000);
+      s.putInt(100, 42);
+
+      PagedFileStorage.PageLease lease = s.leasePage(100);
+      try {
+        assertEquals(42, lease.getBuffer().getInt(s.getOffsetInPage(100)));
+        lease.getBuffer().putInt(s.getOffsetInPage(200), 24);
+        lease.markDirty();
+      }
+      finally {
+        lease.release();
+      }
+
+      assertEquals(24, s.getInt(200));
+      assertTrue(s.isDirty());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void testResizeWithLeasedPageFails() throws IOException {
+    lock.lock();
+    try {
+      s.resize(1000);
+      PagedFileStorage.PageLease lease = s.leasePage(100);
+      try {
+        s.resize(2000);
+        fail("leased page should not be unmapped");
+      }
+      catch (IllegalStateException ignored) {
+      }
+      finally {
+        lease.release();
+      }
+      s.resize(2000);
+      assertEquals(2000, f.length());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void testLeasedPageIsNotMappedTwiceWhenEvictedConcurrently() throws Exception {
+    final int pageSize = Page.PAGE_SIZE;
+    final int pages = 8;
+    PagedFileStorage.StorageLock smallLock = new PagedFileStorage.StorageLock(false, new PageCachePolicy.Lru(), 4 * pageSize);
+    File leasedFile = FileUtil.createTempFile("leased", ".tmp");
+    File scannedFile = FileUtil.createTempFile("scanned", ".tmp");
+    final PagedFileStorage leased = new PagedFileStorage(leasedFile, smallLock, pageSize, true);
+    final PagedFileStorage scanned = new PagedFileStorage(scannedFile, smallLock, pageSize, true);
+    try {
+      leased.resize(pages * pageSize);
+      scanned.resize(8 * pages * pageSize);
+
+      final AtomicBoolean done = new AtomicBoolean();
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      Thread evictor = new Thread("evictor") {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; !done.get(); i++) {
+              scanned.getInt((i % (8 * pages)) * pageSize); // maps pages of another storage, so leased storage pages get evicted
+            }
+          }
+          catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      evictor.start();
+
+      try {
+        for (int i = 0; i < 20000 && failure.get() == null; i++) {
+          int address = (i % pages) * pageSize;
+          PagedFileStorage.PageLease lease = leased.leasePage(address);
+          try {
+            lease.getBuffer().putInt(leased.getOffsetInPage(address), i);
+            lease.markDirty();
+          }
+          finally {
+            lease.release();
+          }
+          // read through a new lease: the storage is accessed concurrently, and leases are what keeps its buffer from being reused
+          // meanwhile, while the page may have been evicted and mapped again since the write
+          lease = leased.leasePage(address);
+          try {
+            assertEquals(i, lease.getBuffer().getInt(leased.getOffsetInPage(address)));
+          }
+          finally {
+            lease.release();
+          }
+        }
+      }
+      finally {
+        done.set(true);
+        evictor.join();
+      }
+      if (failure.get() != null) throw new AssertionError(failure.get());
+    }
+    finally {
+      leased.close();
+      scanned.close();
+      FileUtil.delete(leasedFile);
+      FileUtil.delete(scannedFile);
+    }
+  }
+
+  public void testDirectBufferPoolReusesBuffers() {
+    DirectBufferPool pool = new DirectBufferPool(1024);
+    ByteBuffer buffer = pool.allocate(512);
+    pool.release(buffer);
+    assertEquals(512, pool.getPooledSize());
+
+    assertSame(buffer, pool.allocate(512));
+    assertEquals(0, pool.getPooledSize());
+
+    pool.release(ByteBuffer.allocateDirect(2048)); // does not fit into the pool
+    assertEquals(0, pool.getPooledSize());
+  }
+
   private static final SimpleDateFormat FORMATTER = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
 
   private static void printPct(int pct) {
@@ -23,6 +23,8 @@ import com.intellij.openapi.util.io.FileUtil;
 import junit.framework.TestCase;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -51,6 +53,41 @@ public class UpdateableZipTest extends TestCase {
     assertEntryWithContentExists(jbZip, "/second", "second");
   }
 
+  public void testReadOnly() throws Exception {
+    File deflatedZip = FileUtil.createTempFile("test", ".zip");
+    byte[] big = new byte[100000];
+    for (int i = 0; i < big.length; i++) big[i] = (byte)(i % 251 < 100 ? i % 7 : i);
+    try {
+      ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(deflatedZip)));
+      zos.putNextEntry(new ZipEntry("small"));
+      zos.write("small".getBytes());
+      zos.putNextEntry(new ZipEntry("big"));
+      zos.write(big);
+      zos.close();
+
+      JBZipFile jbZip = new JBZipFile(deflatedZip, "UTF-8", true);
+      assertEntryWithContentExists(jbZip, "small", "small");
+      assertTrue(Arrays.equals(big, jbZip.getEntry("big").getData()));
+      jbZip.close();
+
+      jbZip = new JBZipFile(zipFile, "UTF-8", true);
+      ByteBuffer stored = jbZip.getEntry("/second").getDataBuffer();
+      assertTrue(stored.isReadOnly());
+      assertEquals(ByteBuffer.wrap("second".getBytes()), stored);
+      assertEntryWithContentExists(jbZip, "/first", "first");
+      try {
+        jbZip.getOrCreateEntry("/third").setData("third".getBytes());
+        fail("read-only archive was modified");
+      }
+      catch (IOException ignored) {
+      }
+      jbZip.close();
+    }
+    finally {
+      FileUtil.delete(deflatedZip);
+    }
+  }
+
   public void testAppendEntry() throws Exception {
     File zipFile = createTestUtilZip();
 
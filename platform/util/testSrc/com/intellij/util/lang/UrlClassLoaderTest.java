@@ -0,0 +1,140 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.lang;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class UrlClassLoaderTest extends TestCase {
+  private static final int JARS = 40;
+  private static final int THREADS = 8;
+  private static final int ROUNDS = 20;
+
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("classpath", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testConcurrentClassLoadingFromLazilyOpenedJars() throws Exception {
+    final List<URL> urls = new ArrayList<URL>();
+    final List<String> classNames = new ArrayList<String>();
+    for (int i = 0; i < JARS; i++) {
+      String className = "p" + i + ".C" + i;
+      classNames.add(className);
+      urls.add(createJar("lib" + i + ".jar", className).toURI().toURL());
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (int round = 0; round < ROUNDS; round++) {
+        // jars are opened and registered in the cache on demand, so every round races lookups with loader registration
+        final UrlClassLoader loader = new UrlClassLoader(urls, null, true, true);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Class>> futures = new ArrayList<Future<Class>>();
+        final List<String> names = new ArrayList<String>(classNames);
+        Collections.shuffle(names);
+        for (final String name : names) {
+          futures.add(executor.submit(new Callable<Class>() {
+            @Override
+            public Class call() throws Exception {
+              start.await();
+              return loader.loadClass(name);
+            }
+          }));
+        }
+        start.countDown();
+
+        for (int i = 0; i < futures.size(); i++) {
+          Class aClass = futures.get(i).get();
+          assertEquals(names.get(i), aClass.getName());
+          assertSame(loader, aClass.getClassLoader());
+        }
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private File createJar(String jarName, String className) throws IOException {
+    File jar = new File(myDir, jarName);
+    ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      stream.putNextEntry(new ZipEntry(className.replace('.', '/') + UrlClassLoader.CLASS_EXTENSION));
+      stream.write(createEmptyClass(className.replace('.', '/')));
+      stream.closeEntry();
+    }
+    finally {
+      stream.close();
+    }
+    return jar;
+  }
+
+  /**
+   * Class file of {@code public class <internalName>} without members, enough to be defined by a class loader.
+   */
+  private static byte[] createEmptyClass(String internalName) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0); // minor version
+    out.writeShort(49); // major version, Java 5
+    out.writeShort(5); // constant pool size + 1
+    out.writeByte(1); // #1 Utf8
+    out.writeUTF(internalName);
+    out.writeByte(7); // #2 Class #1
+    out.writeShort(1);
+    out.writeByte(1); // #3 Utf8
+    out.writeUTF("java/lang/Object");
+    out.writeByte(7); // #4 Class #3
+    out.writeShort(3);
+    out.writeShort(0x0021); // ACC_PUBLIC | ACC_SUPER
+    out.writeShort(2); // this class
+    out.writeShort(4); // super class
+    out.writeShort(0); // interfaces
+    out.writeShort(0); // fields
+    out.writeShort(0); // methods
+    out.writeShort(0); // attributes
+    out.close();
+    return bytes.toByteArray();
+  }
+}
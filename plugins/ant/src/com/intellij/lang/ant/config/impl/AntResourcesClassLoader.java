@@ -19,7 +19,9 @@ import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.util.lang.UrlClassLoader;
 import gnu.trove.THashSet;
 
+import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -28,7 +30,18 @@ import java.util.Set;
 *         Date: Oct 21, 2008
 */
 public class AntResourcesClassLoader extends UrlClassLoader {
-  private final Set<String> myMisses = new THashSet<String>();
+  static {
+    Method registration = getRegisterAsParallelCapableMethod();
+    if (registration != null) {
+      try {
+        registration.invoke(null); // registers the caller, which is this class
+      }
+      catch (Exception ignored) {
+      }
+    }
+  }
+
+  private final Set<String> myMisses = Collections.synchronizedSet(new THashSet<String>());
 
   public AntResourcesClassLoader(final List<URL> urls, final ClassLoader parentLoader, final boolean canLockJars, final boolean canUseCache) {
     super(urls, parentLoader, canLockJars, canUseCache, true, false);
@@ -44,6 +44,7 @@ import org.jetbrains.plugins.groovy.lang.psi.GroovyFile;
 import org.jetbrains.plugins.groovy.lang.psi.impl.statements.expressions.TypesUtil;
 import org.jetbrains.plugins.groovy.lang.psi.util.GroovyCommonClassNames;
 
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.*;
 import java.util.concurrent.Callable;
@@ -141,6 +142,17 @@ public class AntTasksProvider {
   }
 
   private static class AntClassLoader extends UrlClassLoader {
+    static {
+      Method registration = getRegisterAsParallelCapableMethod();
+      if (registration != null) {
+        try {
+          registration.invoke(null); // registers the caller, which is this class
+        }
+        catch (Exception ignored) {
+        }
+      }
+    }
+
     private final Future<Map<String, Class>> myFuture;
 
     public AntClassLoader(ArrayList<URL> urls) {
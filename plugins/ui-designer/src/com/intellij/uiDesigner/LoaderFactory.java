@@ -36,6 +36,7 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
 import java.io.File;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
@@ -151,6 +152,17 @@ public final class LoaderFactory {
   }
 
   private static class DesignTimeClassLoader extends UrlClassLoader {
+    static {
+      Method registration = getRegisterAsParallelCapableMethod();
+      if (registration != null) {
+        try {
+          registration.invoke(null); // registers the caller, which is this class
+        }
+        catch (Exception ignored) {
+        }
+      }
+    }
+
     private final String myModuleName;
 
     public DesignTimeClassLoader(final List<URL> urls, final ClassLoader parent, final String moduleName) {